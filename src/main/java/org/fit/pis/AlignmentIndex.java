@@ -0,0 +1,225 @@
+package org.fit.pis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Alignment scores of many relations at once, the same numbers as
+ * PageAreaRelation.computeAlignmentScore() without a traversal per relation.
+ *
+ * The score of a relation counts the areas reachable from its two areas over
+ * the neighbor edges of the same direction whose areas share the same side
+ * (getSideAlignment()) and which are not longer than the threshold of the
+ * relation. So the neighbor edges are split into chains by the direction and
+ * the shared side, one disjoint-set forest per chain kind, and the edges are
+ * linked in the order of their length. The relations are answered in the order
+ * of their thresholds in between, each is the size of the sets of its two areas.
+ *
+ * The arrays are kept for the next relations.
+ */
+class AlignmentIndex
+{
+    /* Direction (2) times the shared side (4) */
+    private static final int KINDS = 8;
+
+    private final ArrayList<PageArea> nodes;
+    private final HashMap<PageArea, Integer> index;
+
+    private int[] edgeA;
+    private int[] edgeB;
+    private int[] edgeKind;
+    private long[] edgeOrder;
+    private long[] queryOrder;
+
+    private int[] parent;
+    private int[] size;
+
+    public AlignmentIndex()
+    {
+        this.nodes = new ArrayList<>();
+        this.index = new HashMap<>();
+        this.edgeA = new int[16];
+        this.edgeB = new int[16];
+        this.edgeKind = new int[16];
+        this.edgeOrder = new long[16];
+        this.queryOrder = new long[16];
+        this.parent = new int[16];
+        this.size = new int[16];
+    }
+
+    /**
+     * Sets the alignment scores of the relations. The neighbors of the areas
+     * must not change in the meantime.
+     */
+    public void computeScores(List<PageAreaRelation> relations)
+    {
+        PageAreaRelation rel;
+        int queryCnt = 0, edgeCnt, e, threshold, kind, ra, rb;
+
+        this.collectNodes(relations);
+        edgeCnt = this.collectEdges();
+
+        if (this.queryOrder.length < relations.size()) this.queryOrder = new long[relations.size()];
+        for (int i = 0; i < relations.size(); i++)
+        {
+            rel = relations.get(i);
+            threshold = this.getThreshold(rel.getA(), rel.getB());
+            if (rel.getA().getSideAlignment(rel.getB()) == PageArea.ALIGNMENT_NONE ||
+                rel.getAbsoluteDistance() > threshold)
+            {
+                rel.setAlignmentScore(1);
+                continue;
+            }
+            this.queryOrder[queryCnt++] = ((long)threshold << 32) | i;
+        }
+
+        /* DOC: both arrays are sorted by the length, the index in the low bits keeps the sort stable */
+        Arrays.sort(this.edgeOrder, 0, edgeCnt);
+        Arrays.sort(this.queryOrder, 0, queryCnt);
+
+        if (this.parent.length < KINDS*this.nodes.size())
+        {
+            this.parent = new int[KINDS*this.nodes.size()];
+            this.size = new int[this.parent.length];
+        }
+        for (int i = 0; i < KINDS*this.nodes.size(); i++)
+        {
+            this.parent[i] = i;
+            this.size[i] = 1;
+        }
+
+        e = 0;
+        for (int q = 0; q < queryCnt; q++)
+        {
+            rel = relations.get((int)this.queryOrder[q]);
+            while (e < edgeCnt && (this.edgeOrder[e] >> 32) <= (this.queryOrder[q] >> 32))
+            {
+                this.link((int)this.edgeOrder[e]);
+                e++;
+            }
+
+            kind = this.getKind(rel.getDirection(), rel.getA().getSideAlignment(rel.getB()));
+            ra = this.find(kind*this.nodes.size()+this.index.get(rel.getA()));
+            rb = this.find(kind*this.nodes.size()+this.index.get(rel.getB()));
+            rel.setAlignmentScore((ra == rb) ? this.size[ra] : this.size[ra]+this.size[rb]);
+        }
+    }
+
+    /**
+     * The areas of the relations and all the areas reachable over their neighbors.
+     */
+    private void collectNodes(List<PageAreaRelation> relations)
+    {
+        NeighborMap neighbors;
+
+        this.nodes.clear();
+        this.index.clear();
+        for (PageAreaRelation rel: relations)
+        {
+            this.addNode(rel.getA());
+            this.addNode(rel.getB());
+        }
+        for (int i = 0; i < this.nodes.size(); i++)
+        {
+            neighbors = this.nodes.get(i).getNeighbors();
+            for (int j = neighbors.first(); j >= 0; j = neighbors.next(j))
+            {
+                this.addNode(neighbors.getArea(j));
+            }
+        }
+    }
+
+    private void addNode(PageArea a)
+    {
+        if (this.index.containsKey(a)) return;
+
+        this.index.put(a, this.nodes.size());
+        this.nodes.add(a);
+    }
+
+    /**
+     * Each neighbor edge of aligned areas once, from the area with the lower index.
+     * @return the number of the edges
+     */
+    private int collectEdges()
+    {
+        NeighborMap neighbors;
+        PageArea a, b;
+        int cnt = 0, alignment, j;
+
+        for (int i = 0; i < this.nodes.size(); i++)
+        {
+            a = this.nodes.get(i);
+            neighbors = a.getNeighbors();
+            for (int slot = neighbors.first(); slot >= 0; slot = neighbors.next(slot))
+            {
+                b = neighbors.getArea(slot);
+                j = this.index.get(b);
+                alignment = a.getSideAlignment(b);
+                if (j < i || alignment == PageArea.ALIGNMENT_NONE) continue;
+
+                if (cnt == this.edgeA.length)
+                {
+                    this.edgeA = Arrays.copyOf(this.edgeA, 2*cnt);
+                    this.edgeB = Arrays.copyOf(this.edgeB, 2*cnt);
+                    this.edgeKind = Arrays.copyOf(this.edgeKind, 2*cnt);
+                    this.edgeOrder = Arrays.copyOf(this.edgeOrder, 2*cnt);
+                }
+                this.edgeA[cnt] = i;
+                this.edgeB[cnt] = j;
+                this.edgeKind[cnt] = this.getKind(neighbors.getRelation(slot).getDirection(), alignment);
+                this.edgeOrder[cnt] = ((long)neighbors.getRelation(slot).getAbsoluteDistance() << 32) | cnt;
+                cnt++;
+            }
+        }
+
+        return cnt;
+    }
+
+    private int getKind(int direction, int alignment)
+    {
+        /* The side flags are single bits: left 0, right 1, top 2, bottom 3 */
+        return 4*direction+Integer.numberOfTrailingZeros(alignment);
+    }
+
+    /**
+     * The same threshold as computeAlignmentScore(): one and a half of the smallest side.
+     */
+    private int getThreshold(PageArea a, PageArea b)
+    {
+        return (int) Math.floor(Math.min(Math.min(a.getWidth(), a.getHeight()),
+                                         Math.min(b.getWidth(), b.getHeight()))*1.5);
+    }
+
+    private void link(int edge)
+    {
+        int base = this.edgeKind[edge]*this.nodes.size();
+        int a = this.find(base+this.edgeA[edge]);
+        int b = this.find(base+this.edgeB[edge]);
+
+        if (a == b) return;
+        if (this.size[a] < this.size[b])
+        {
+            this.parent[a] = b;
+            this.size[b] += this.size[a];
+        }
+        else
+        {
+            this.parent[b] = a;
+            this.size[a] += this.size[b];
+        }
+    }
+
+    private int find(int i)
+    {
+        while (this.parent[i] != i)
+        {
+            this.parent[i] = this.parent[this.parent[i]];
+            i = this.parent[i];
+        }
+
+        return i;
+    }
+}
@@ -4,16 +4,23 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import com.infomatiq.jsi.Rectangle;
 import com.infomatiq.jsi.SpatialIndex;
 import com.infomatiq.jsi.rtree.RTree;
 
+import gnu.trove.TIntArrayList;
 import gnu.trove.TIntProcedure;
 
 class AreaMatch implements TIntProcedure
@@ -36,46 +43,377 @@ class AreaMatch implements TIntProcedure
     }
 };
 
-public class AreaProcessor2
+/**
+ * Counts the matching areas, the query stops as soon as the limit is exceeded.
+ */
+class AreaCount implements TIntProcedure
+{
+    private int count;
+    private int limit;
+
+    public AreaCount()
+    {
+        this.reset(Integer.MAX_VALUE);
+    }
+
+    public void reset(int limit)
+    {
+        this.count = 0;
+        this.limit = limit;
+    }
+
+    @Override
+    public boolean execute(int id) {
+        count++;
+        return count <= limit;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public boolean isExceeded() {
+        return count > limit;
+    }
+};
+
+/**
+ * Edges to the nearest neighbors, one column per field and no object per edge:
+ * the index of the area in the list the graph is built from, the leaf index of
+ * the neighbor, the absolute distance, the direction of the relation and whether
+ * the edge goes right or down. Those make the area graph, the edges going left
+ * and up are only registered as neighbors.
+ *
+ * The leaves found in one direction are collected as candidates first (the batch
+ * is the procedure of the area tree queries), only the nearest become edges.
+ */
+class NeighborBatch implements TIntProcedure
+{
+    public int size;
+    public int[] a = new int[8];
+    public int[] b = new int[8];
+    public int[] distance = new int[8];
+    public byte[] direction = new byte[8];
+    public boolean[] forward = new boolean[8];
+
+    private int candidateCnt;
+    private int[] candidate = new int[16];
+    private int[] candidateDistance = new int[16];
+    private int nearestDistance;
+
+    public void clear()
+    {
+        this.size = 0;
+        this.candidateCnt = 0;
+    }
+
+    @Override
+    public boolean execute(int id)
+    {
+        if (this.candidateCnt == this.candidate.length)
+        {
+            this.candidate = Arrays.copyOf(this.candidate, 2*this.candidateCnt);
+            this.candidateDistance = Arrays.copyOf(this.candidateDistance, 2*this.candidateCnt);
+        }
+        this.candidate[this.candidateCnt++] = id;
+        return true;
+    }
+
+    /**
+     * Measures the distances of the candidates from the area, the area itself is left out.
+     * @return the distance of the nearest candidates or Integer.MAX_VALUE when there are none
+     */
+    public int measureCandidates(PageArea area, List<PageArea> leaves)
+    {
+        PageArea leaf;
+        int cnt = 0;
+
+        this.nearestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < this.candidateCnt; i++)
+        {
+            leaf = leaves.get(this.candidate[i]);
+            if (leaf == area) continue;
+
+            this.candidate[cnt] = this.candidate[i];
+            this.candidateDistance[cnt] = area.getDistanceAbsolute(leaf);
+            this.nearestDistance = Math.min(this.nearestDistance, this.candidateDistance[cnt]);
+            cnt++;
+        }
+        this.candidateCnt = cnt;
+
+        return this.nearestDistance;
+    }
+
+    /**
+     * Makes edges of the nearest measured candidates, in the order they were found, and drops the rest.
+     */
+    public void addNearest(int a, int direction, boolean forward)
+    {
+        for (int i = 0; i < this.candidateCnt; i++)
+        {
+            if (this.candidateDistance[i] != this.nearestDistance) continue;
+
+            if (this.size == this.a.length)
+            {
+                this.a = Arrays.copyOf(this.a, 2*this.size);
+                this.b = Arrays.copyOf(this.b, 2*this.size);
+                this.distance = Arrays.copyOf(this.distance, 2*this.size);
+                this.direction = Arrays.copyOf(this.direction, 2*this.size);
+                this.forward = Arrays.copyOf(this.forward, 2*this.size);
+            }
+            this.a[this.size] = a;
+            this.b[this.size] = this.candidate[i];
+            this.distance[this.size] = this.candidateDistance[i];
+            this.direction[this.size] = (byte)direction;
+            this.forward[this.size] = forward;
+            this.size++;
+        }
+        this.candidateCnt = 0;
+    }
+
+    public void dropCandidates()
+    {
+        this.candidateCnt = 0;
+    }
+};
+
+/**
+ * Time and relation limits of one run, shared by the region workers.
+ * The clock is read only every 64 relations.
+ */
+class WorkBudget
+{
+    private long deadline;
+    private int relationLimit;
+    private final AtomicInteger spent = new AtomicInteger();
+    private volatile boolean exhausted;
+
+    /**
+     * @param timeLimit milliseconds from now, 0 for no limit
+     * @param relationLimit number of relations, 0 for no limit
+     */
+    public void start(long timeLimit, int relationLimit)
+    {
+        this.deadline = (timeLimit == 0) ? Long.MAX_VALUE : System.nanoTime()+timeLimit*1000000;
+        this.relationLimit = (relationLimit == 0) ? Integer.MAX_VALUE : relationLimit;
+        this.spent.set(0);
+        this.exhausted = false;
+    }
+
+    /**
+     * Counts one more relation.
+     * @return false when the budget is exhausted
+     */
+    public boolean spend()
+    {
+        int cnt;
+
+        if (this.exhausted) return false;
+
+        cnt = this.spent.incrementAndGet();
+        if (cnt > this.relationLimit || ((cnt & 63) == 0 && System.nanoTime() > this.deadline))
+        {
+            this.exhausted = true;
+        }
+
+        return !this.exhausted;
+    }
+
+    public boolean isExhausted()
+    {
+        return this.exhausted;
+    }
+};
+
+public class AreaProcessor2 implements AutoCloseable
 {
     private boolean DEBUG = false;
     private final ArrayList<PageArea> areas;
+    /* Bounds of the leaves, for the loops over all of them */
+    private final AreaStore store;
 
-    private final SpatialIndex areaTree;
+    /* Note: the leaf set rarely changes, so it is kept in a packed read-only index,
+     * the leaves appended later go to a small dynamic tree until the index is repacked */
+    private PackedAreaIndex areaTree;
+    private SpatialIndex appendedTree;
     private final SpatialIndex groupTree;
+    /* Groups made outside of the processor, see addFixedGroup() */
+    private final ArrayList<PageArea> fixedGroups;
 
-    private final HashMap<Integer, PageArea> groupMap;
+    /* The groups by their handle (PageArea.getId()), the merged ones are null */
+    private final ArrayList<PageArea> groups;
+    private int liveGroupCnt;
     private final ArrayList<PageArea> ungrouped;
+    private final GroupMembership membership;
+    private final AreaCount counter;
+
+    /* History of the accepted merges, see getMergeTree() */
+    private final MergeTree mergeTree;
+    private final HashMap<PageArea, Integer> groupNodes;
+    private final TIntArrayList grownLeaves;
 
     private double similarityThreshold = 0.3;
+    private SimilarityModel similarityModel = new WeightedSimilarity();
 
-    private final int pageWidth;
-    private final int pageHeight;
+    private int pageWidth;
+    private int pageHeight;
 
     private final StopWatch time;
 
-    private BufferedWriter log;
+    /* Limits of a run, see setTimeLimit() and setRelationLimit() */
+    private long timeLimit = 0;
+    private int relationLimit = 0;
+    private final WorkBudget budget;
+
+    /* Number of threads used for the area graph construction and the region clustering */
+    private int parallelism = 1;
+    /* Cluster the independent regions of the page separately, see locateRegions() */
+    private boolean regionClustering = false;
+    private final boolean regionWorker;
+    /* Threads of the parallel runs, made when first needed and kept until close() */
+    private ForkJoinPool pool;
+
+    public static final int NEIGHBOR_SEARCH_RTREE = 0;
+    public static final int NEIGHBOR_SEARCH_SWEEP = 1;
+
+    private int neighborSearch = NEIGHBOR_SEARCH_RTREE;
+    private SweepNeighborFinder sweepFinder;
+
+    /* Distance of the nearest neighbors of each leaf in the four directions (the sweep direction order) */
+    private int[] nearest;
+    private boolean clustered;
+
+    /* Scratch structures kept for the next page, see reset() */
+    private final ArrayList<PageAreaRelation> graph;
+    private NeighborBatch[] batches;
+    /* Features of the relations evaluated by the similarity model */
+    private double[] shapeFeature;
+    private double[] colorFeature;
+    private double[] positionFeature;
+    private int[] alignmentFeature;
+    private double[] similarityResult;
+    private final AlignmentIndex alignmentIndex = new AlignmentIndex();
+    private final RelationQueue queue;
+
+    /* Trace of the current run, null when nothing is traced */
+    private ClusterTrace trace;
+    private ClusterTrace externalTrace;
 
     public AreaProcessor2(ArrayList<PageArea> areas, int width, int height) throws IOException
     {
-        Collections.sort(areas, new AreaSizeComparator());
         /* Note: we store only leaf areas */
         this.areas = new ArrayList<>();
-        this.areaTree = new RTree();
-        this.areaTree.init(null);
 
-        this.groupMap = new HashMap<>();
+        this.groups = new ArrayList<>();
         this.groupTree = new RTree();
         this.groupTree.init(null);
+        this.fixedGroups = new ArrayList<>();
 
         this.ungrouped = new ArrayList<>();
 
-        this.pageHeight = width;
-        this.pageWidth = height;
+        this.time = new StopWatch(true);
+
+        this.store = new AreaStore(this.areas);
+        this.areaTree = new PackedAreaIndex(this.store);
+        this.membership = new GroupMembership(this.areas);
+        this.counter = new AreaCount();
+        this.mergeTree = new MergeTree(this.areas);
+        this.groupNodes = new HashMap<>();
+        this.grownLeaves = new TIntArrayList();
+        this.graph = new ArrayList<>();
+        this.queue = new RelationQueue(this.graph);
+        this.budget = new WorkBudget();
+        this.regionWorker = false;
+
+        this.reset(areas, width, height);
+    }
+
+    /**
+     * Creates a worker clustering some regions of the page (see locateRegions()).
+     * The leaf areas, their index and membership sets are shared with the parent,
+     * the groups are kept separately until the results are collected.
+     */
+    private AreaProcessor2(AreaProcessor2 parent)
+    {
+        this.DEBUG = parent.DEBUG;
+        this.trace = parent.trace;
+        this.areas = parent.areas;
+        this.store = parent.store;
+        this.areaTree = parent.areaTree;
+
+        this.groups = new ArrayList<>();
+        this.groupTree = new RTree();
+        this.groupTree.init(null);
+        this.fixedGroups = parent.fixedGroups;
+        for (PageArea g: this.fixedGroups)
+        {
+            this.groupTree.add(g.getRectangle(), 0);
+        }
+
+        this.ungrouped = new ArrayList<>();
+
+        this.pageHeight = parent.pageHeight;
+        this.pageWidth = parent.pageWidth;
+        this.similarityThreshold = parent.similarityThreshold;
 
         this.time = new StopWatch(true);
 
-        this.buildHierarchy(areas);
+        this.membership = parent.membership.fork();
+        this.counter = new AreaCount();
+        this.mergeTree = new MergeTree(this.areas);
+        this.groupNodes = new HashMap<>();
+        this.grownLeaves = new TIntArrayList();
+        this.graph = new ArrayList<>();
+        this.queue = new RelationQueue(this.graph);
+        this.budget = parent.budget;
+        this.regionWorker = true;
+    }
+
+    /**
+     * Starts over with the areas of another page, as a new AreaProcessor2 would.
+     * The indexes, the relation storage and the maps are kept and refilled, so a
+     * processor used for many pages only allocates the results. The settings
+     * (threshold, parallelism, region clustering, neighbor search, debug) are kept
+     * as well and so are the threads of the parallel runs, see close().
+     *
+     * DOC: the lists returned by getAreas() and getUngrouped() and the merge tree
+     * are the same objects for every page, the reset clears them. They have to be
+     * read (or copied) before the next reset. The lists of the groups are new for
+     * each call, the groups themselves are not reused.
+     */
+    public void reset(ArrayList<PageArea> areas, int width, int height)
+    {
+        for (PageArea g: this.groups)
+        {
+            if (g != null) this.groupTree.delete(g.getRectangle(), 0);
+        }
+        for (PageArea g: this.fixedGroups)
+        {
+            this.groupTree.delete(g.getRectangle(), 0);
+        }
+        this.groups.clear();
+        this.fixedGroups.clear();
+        this.liveGroupCnt = 0;
+        this.ungrouped.clear();
+        this.groupNodes.clear();
+        this.grownLeaves.resetQuick();
+        this.graph.clear();
+        this.time.clear();
+
+        this.pageHeight = width;
+        this.pageWidth = height;
+
+        Collections.sort(areas, new AreaSizeComparator());
+        this.areas.clear();
+        buildHierarchy(areas, this.areas);
+        this.store.reset(this.areas);
+        this.areaTree.reset(this.store);
+        this.appendedTree = null;
+        this.sweepFinder = null;
+        this.membership.reset(this.areas);
+        this.mergeTree.clear();
+        this.clustered = false;
+        this.budget.start(0, 0);
     }
 
     public void setThreshold(double t)
@@ -89,36 +427,155 @@ public class AreaProcessor2
         return this.similarityThreshold;
     }
 
+    /**
+     * Sets the way the similarity of the related areas is computed,
+     * WeightedSimilarity with the default weights is used otherwise.
+     */
+    public void setSimilarityModel(SimilarityModel model)
+    {
+        if (model == null) return;
+
+        this.similarityModel = model;
+    }
+
+    public SimilarityModel getSimilarityModel()
+    {
+        return this.similarityModel;
+    }
+
+    /**
+     * Traces each run into out.txt.
+     */
     public void setDebug(boolean d)
     {
         this.DEBUG = d;
     }
 
-    private void buildHierarchy(ArrayList<PageArea> areas)
+    /**
+     * Sets a trace for all the following runs, it is never closed by the processor.
+     * Null stops the tracing (unless debugging is on).
+     */
+    public void setTrace(ClusterTrace t)
+    {
+        this.externalTrace = t;
+    }
+
+    /**
+     * Limits the time of each extractGroups() or appendAreas() call, the clustering
+     * stops when it runs out and keeps the groups made so far. The time spent
+     * building the area graph counts as well, but the graph is always finished.
+     * @param ms milliseconds, 0 for no limit
+     */
+    public void setTimeLimit(long ms)
+    {
+        if (ms < 0) return;
+
+        this.timeLimit = ms;
+    }
+
+    public long getTimeLimit()
+    {
+        return this.timeLimit;
+    }
+
+    /**
+     * Limits the number of relations the clustering processes in each run,
+     * as setTimeLimit().
+     * @param cnt number of relations, 0 for no limit
+     */
+    public void setRelationLimit(int cnt)
+    {
+        if (cnt < 0) return;
+
+        this.relationLimit = cnt;
+    }
+
+    public int getRelationLimit()
+    {
+        return this.relationLimit;
+    }
+
+    /**
+     * Tells whether the last run stopped on a limit before it processed all the relations.
+     *
+     * DOC: the relations left are dropped, appendAreas() clusters only the new ones
+     */
+    public boolean isTruncated()
+    {
+        return this.budget.isExhausted();
+    }
+
+    public void setParallelism(int p)
+    {
+        if (p < 1) return;
+
+        this.parallelism = p;
+    }
+
+    public int getParallelism()
+    {
+        return this.parallelism;
+    }
+
+    /**
+     * Clusters the independent regions of the page separately, in parallel when
+     * the parallelism is higher than 1. The groups may differ slightly from
+     * the clustering of the whole page, see locateRegions().
+     */
+    public void setRegionClustering(boolean r)
+    {
+        this.regionClustering = r;
+    }
+
+    public boolean isRegionClustering()
+    {
+        return this.regionClustering;
+    }
+
+    /**
+     * Selects the way the nearest neighbors are found: one R-tree query per area and
+     * direction (default) or a sweep over all the areas.
+     */
+    public void setNeighborSearch(int search)
+    {
+        if (search != NEIGHBOR_SEARCH_RTREE && search != NEIGHBOR_SEARCH_SWEEP) return;
+
+        this.neighborSearch = search;
+    }
+
+    public int getNeighborSearch()
+    {
+        return this.neighborSearch;
+    }
+
+    /**
+     * Makes each area a child of the smallest area containing it (the first one
+     * following it in the size order), the areas without children are the leaves.
+     * The areas have to be sorted by AreaSizeComparator.
+     *
+     * DOC: the containers are looked up in a packed index of all the areas, only the
+     * areas intersecting the contained one are tested
+     */
+    static void buildHierarchy(ArrayList<PageArea> areas, ArrayList<PageArea> leaves)
     {
-        ArrayList<PageArea> pool = new ArrayList<>();
-        ArrayList<PageArea> deleteList = new ArrayList<>();
+        final AreaStore bounds = new AreaStore(areas, false);
+        PackedAreaIndex index = new PackedAreaIndex(bounds);
+        final int[] container = new int[1];
 
-        pool.addAll(areas);
-        Collections.sort(pool, new AreaSizeComparator());
-        for (PageArea area: areas) // this can't be pool, because we will modify it in the loop
+        for (int i = 0; i < areas.size(); i++)
         {
-            for (PageArea a: deleteList)
-            {
-                pool.remove(a);
-            }
-            deleteList.clear();
+            final int pos = i;
 
-            for (PageArea a: pool)
-            {
-                if (area == a) break;
-                if (!area.contains(a)) continue;
+            container[0] = Integer.MAX_VALUE;
+            index.intersects(new Rectangle(bounds.getLeft(i), bounds.getTop(i), bounds.getRight(i), bounds.getBottom(i)), id -> {
+                if (id > pos && id < container[0] && bounds.contains(id, pos)) container[0] = id;
+                return true;
+            });
+            if (container[0] == Integer.MAX_VALUE) continue;
 
-                area.addChild(a);
-                deleteList.add(a);
-            }
+            areas.get(container[0]).addChild(areas.get(i));
         }
-        this.extractLeafAreas(areas);
+        extractLeafAreas(areas, leaves);
     }
 
     public ArrayList<PageArea> getAreas()
@@ -126,26 +583,43 @@ public class AreaProcessor2
         return this.areas;
     }
 
-    private void extractLeafAreas(ArrayList<PageArea> areas)
+    /**
+     * Adds a group made outside of the processor (e.g. in another part of the page).
+     * It is not one of the groups of the processor, but the new groups must not overlap
+     * it. The fixed groups are dropped by reset().
+     */
+    void addFixedGroup(PageArea group)
+    {
+        this.fixedGroups.add(group);
+        this.groupTree.add(group.getRectangle(), 0);
+    }
+
+    private static void extractLeafAreas(ArrayList<PageArea> areas, ArrayList<PageArea> leaves)
     {
-        this.areas.clear();
         for (PageArea a: areas)
         {
             if (a.getChildren().size() == 0)
             {
                 a.setParent(null);
                 a.getChildren().clear();
+                /* Left from a former page, the leaf is indexed anew */
+                a.getNeighbors().clear();
 //                if (a.getTop() < 180)
 //                    System.out.println("areas.add(new PageArea(Color.black,"+a.getLeft()+","+a.getTop()+","+a.getRight()+","+a.getBottom()+"));");
-                this.areas.add(a);
-                this.areaTree.add(a.getRectangle(), this.areas.size()-1);
+                leaves.add(a);
             }
         }
     }
 
-    public HashMap<Integer, PageArea> getGroups() throws Exception
+    /**
+     * Returns the groups in the order they were created, the clustering is run
+     * first when there are none yet.
+     */
+    public ArrayList<PageArea> getGroups() throws Exception
     {
-        if (this.groupMap.isEmpty())
+        ArrayList<PageArea> ret = new ArrayList<>();
+
+        if (this.liveGroupCnt == 0)
         {
             if (!this.areas.isEmpty())
             {
@@ -153,41 +627,352 @@ public class AreaProcessor2
             }
         }
 
-        return this.groupMap;
+        for (PageArea g: this.groups)
+        {
+            if (g != null) ret.add(g);
+        }
+
+        return ret;
     }
 
     public ArrayList<PageArea> extractGroups(List<PageArea> areas) throws Exception
     {
         ArrayList<PageAreaRelation> relations;
-        ArrayList<PageArea> ret = new ArrayList<>();
-        FileWriter fstream;
+        ArrayList<PageArea> ret;
 
-        if (DEBUG) fstream = new FileWriter("out.txt");
-        else fstream = new FileWriter("/dev/null");
-        this.log = new BufferedWriter(fstream);
+        this.openTrace(false);
+        this.budget.start(this.timeLimit, this.relationLimit);
+
+        /* The whole graph is built anyway, the appended leaves can be packed as well */
+        if (this.appendedTree != null) this.repackAreaTree();
 
         relations = this.getAreaGraph(areas);
+        this.clustered = true;
+        this.time.toggle();
+        if (this.regionClustering) this.locateRegions(relations);
+        else this.locateGroups(relations);
+        this.time.toggle();
+        System.out.println(this.time.getTotal()/1000000 + " ms");
+
+        ret = this.collectGroups();
+        this.closeTrace();
+
+        return ret;
+    }
+
+    /**
+     * Adds the areas of content appended to the page (e.g. loaded on scrolling) and
+     * continues the clustering with them. Only the new leaves and the existing areas
+     * that see them as their nearest neighbors are searched; the groups made so far
+     * are kept and the new relations are clustered on top of them.
+     *
+     * DOC: the relations made before are never withdrawn, an existing area that is
+     * closer to a new one than to its former nearest neighbor keeps both
+     *
+     * The page grows to hold the new areas, the size given to the constructor
+     * (or reset()) is only the initial one.
+     * @return all the groups, as extractGroups()
+     */
+    public ArrayList<PageArea> appendAreas(ArrayList<PageArea> areas) throws Exception
+    {
+        ArrayList<PageArea> leaves = new ArrayList<>();
+        ArrayList<PageAreaRelation> relations;
+        ArrayList<PageArea> ret;
+        int first = this.areas.size();
+
+        Collections.sort(areas, new AreaSizeComparator());
+        buildHierarchy(areas, leaves);
+
+        for (PageArea leaf: leaves)
+        {
+            this.areas.add(leaf);
+            this.store.add(leaf);
+            this.membership.addLeaf(leaf);
+            /* The selectors end at the page bounds, they would miss the areas beyond them */
+            this.pageWidth = Math.max(this.pageWidth, leaf.getRight());
+            this.pageHeight = Math.max(this.pageHeight, leaf.getBottom());
+        }
+        this.mergeTree.extendLeaves();
+        this.indexAppended(first);
+
+        /* Nothing clustered yet, there is no state to continue from */
+        if (!this.clustered) return this.extractGroups(this.areas);
+
+        this.openTrace(true);
+        this.budget.start(this.timeLimit, this.relationLimit);
+        relations = this.getAppendedGraph(first);
+        this.time.toggle();
         this.locateGroups(relations);
+        this.time.toggle();
+        System.out.println(this.time.getTotal()/1000000 + " ms");
+
+        ret = this.collectGroups();
+        this.closeTrace();
+
+        return ret;
+    }
+
+    private ArrayList<PageArea> collectGroups()
+    {
+        ArrayList<PageArea> ret = new ArrayList<>();
+        PageArea group;
 
         this.ungrouped.clear();
-        for (PageArea group: groupMap.values())
+        for (PageArea g: this.groups)
+        {
+            if (g != null) ret.add(g);
+        }
+
+        /* The clustering tracks groups in the membership sets only, parent pointers are refreshed here */
+        for (PageArea area: this.areas)
         {
-            ret.add(group);
+            group = this.membership.getGroup(area);
+            area.setParent(group);
+            if (group == null)
+            {
+                this.ungrouped.add(area);
+            }
         }
 
-        for (PageArea area: this.areas)
+        return ret;
+    }
+
+    private void openTrace(boolean append) throws IOException
+    {
+        if (this.externalTrace != null) this.trace = this.externalTrace;
+        else if (DEBUG) this.trace = new ClusterTrace(new BufferedWriter(new FileWriter("out.txt", append)));
+        else this.trace = null;
+    }
+
+    private void closeTrace() throws IOException
+    {
+        if (this.trace != null && this.trace != this.externalTrace) this.trace.close();
+        this.trace = null;
+    }
+
+    /**
+     * Makes the leaves from first on searchable. The appended leaves are packed
+     * together with the others once they make a quarter of the packed ones.
+     */
+    private void indexAppended(int first)
+    {
+        if (this.areas.size()-this.areaTree.size() > this.areaTree.size()/4)
+        {
+            this.repackAreaTree();
+            return;
+        }
+
+        if (this.appendedTree == null)
+        {
+            this.appendedTree = new RTree();
+            this.appendedTree.init(null);
+        }
+        for (int i = first; i < this.areas.size(); i++)
+        {
+            this.appendedTree.add(this.areas.get(i).getRectangle(), i);
+        }
+    }
+
+    private void repackAreaTree()
+    {
+        this.areaTree = new PackedAreaIndex(this.store);
+        this.appendedTree = null;
+    }
+
+    /**
+     * Queries the packed leaves and the ones appended since they were packed.
+     */
+    private void intersectsAreas(Rectangle r, final TIntProcedure ip)
+    {
+        final boolean[] stopped = {false};
+
+        if (this.appendedTree == null)
+        {
+            this.areaTree.intersects(r, ip);
+            return;
+        }
+
+        this.areaTree.intersects(r, id -> {
+            stopped[0] = !ip.execute(id);
+            return !stopped[0];
+        });
+        if (!stopped[0]) this.appendedTree.intersects(r, ip);
+    }
+
+    /**
+     * Clusters the regions of the page concurrently. A region is made of the components
+     * of the area graph whose bounds overlap, so the regions are separated by
+     * whitespace and neither the groups nor the overlap checks of one region can
+     * ever reach into another. The regions are split among the workers in the order
+     * of their best relation and the results are collected in the same order.
+     *
+     * DOC: the clustering of the whole page skips its very last relation, the workers
+     * process the last relation of each of their queues (see locateGroups()), so a region
+     * may get one more merge than in the clustering of the whole page
+     */
+    private void locateRegions(ArrayList<PageAreaRelation> graph) throws Exception
+    {
+        int[] region = this.findRegions();
+        int r, offset;
+        Integer id;
+        HashMap<Integer, Integer> regionIds = new HashMap<>();
+        final ArrayList<ArrayList<PageAreaRelation>> regionGraphs = new ArrayList<>();
+        final AreaProcessor2[] workers;
+
+        for (PageAreaRelation rel: graph)
+        {
+            r = region[this.membership.indexOf(rel.getA())];
+            id = regionIds.get(r);
+            if (id == null)
+            {
+                id = regionGraphs.size();
+                regionIds.put(r, id);
+                regionGraphs.add(new ArrayList<>());
+            }
+            regionGraphs.get(id).add(rel);
+        }
+
+        if (regionGraphs.size() < 2)
+        {
+            this.locateGroups(graph);
+            return;
+        }
+
+        /* A few more workers than threads, the regions differ a lot in size */
+        workers = new AreaProcessor2[Math.min(regionGraphs.size(), 4*this.parallelism)];
+        for (int i = 0; i < workers.length; i++)
+        {
+            workers[i] = new AreaProcessor2(this);
+        }
+
+        this.forEachIndex(workers.length, i -> {
+            for (int j = i; j < regionGraphs.size(); j += workers.length)
+            {
+                workers[i].locateGroups(regionGraphs.get(j));
+            }
+        });
+
+        /* The groups get the handles, the overlap checks and the merge tree nodes
+         * of this processor, so that appendAreas() can continue with them */
+        for (AreaProcessor2 worker: workers)
+        {
+            for (PageArea g: worker.groups)
+            {
+                if (g == null) continue;
+
+                this.addGroup(g);
+                this.groupTree.add(g.getRectangle(), 0);
+            }
+            /* The groups of the worker follow the ones collected so far in the merge tree */
+            offset = this.mergeTree.getNodeCount()-this.mergeTree.getLeafCount();
+            for (Map.Entry<PageArea, Integer> node: worker.groupNodes.entrySet())
+            {
+                this.groupNodes.put(node.getKey(), node.getValue()+offset);
+            }
+            this.mergeTree.addAll(worker.mergeTree);
+        }
+    }
+
+    /**
+     * Splits the leaf areas into independent regions: first by the components
+     * of the neighbor graph, then the components with overlapping bounds are joined
+     * until all the regions are disjoint (borders included, as in the area tree).
+     * @return the region id for each leaf area
+     */
+    private int[] findRegions()
+    {
+        int cnt = this.areas.size();
+        int[] region = new int[cnt];
+        int[] left = new int[cnt];
+        int[] top = new int[cnt];
+        int[] right = new int[cnt];
+        int[] bottom = new int[cnt];
+        ArrayList<Integer> roots = new ArrayList<>();
+        NeighborMap neighbors;
+        boolean joined;
+        int r;
+
+        for (int i = 0; i < cnt; i++)
+        {
+            region[i] = i;
+        }
+        for (int i = 0; i < cnt; i++)
+        {
+            neighbors = this.areas.get(i).getNeighbors();
+            for (int j = neighbors.first(); j >= 0; j = neighbors.next(j))
+            {
+                this.joinRegions(region, i, this.membership.indexOf(neighbors.getArea(j)));
+            }
+        }
+
+        do {
+            joined = false;
+
+            roots.clear();
+            for (int i = 0; i < cnt; i++)
+            {
+                if (this.findRegion(region, i) == i)
+                {
+                    roots.add(i);
+                    left[i] = Integer.MAX_VALUE;
+                    top[i] = Integer.MAX_VALUE;
+                    right[i] = Integer.MIN_VALUE;
+                    bottom[i] = Integer.MIN_VALUE;
+                }
+            }
+            for (int i = 0; i < cnt; i++)
+            {
+                r = this.findRegion(region, i);
+                left[r] = Math.min(left[r], this.store.getLeft(i));
+                top[r] = Math.min(top[r], this.store.getTop(i));
+                right[r] = Math.max(right[r], this.store.getRight(i));
+                bottom[r] = Math.max(bottom[r], this.store.getBottom(i));
+            }
+
+            /* Sweep over the regions from the left, only the ones starting before the end of the current one can overlap */
+            roots.sort((x, y) -> Integer.compare(left[x], left[y]));
+            for (int i = 0; i < roots.size(); i++)
+            {
+                for (int j = i+1; j < roots.size() && left[roots.get(j)] <= right[roots.get(i)]; j++)
+                {
+                    if (top[roots.get(j)] <= bottom[roots.get(i)] && bottom[roots.get(j)] >= top[roots.get(i)])
+                    {
+                        joined |= this.joinRegions(region, roots.get(i), roots.get(j));
+                    }
+                }
+            }
+        } while (joined);
+
+        for (int i = 0; i < cnt; i++)
+        {
+            region[i] = this.findRegion(region, i);
+        }
+
+        return region;
+    }
+
+    private int findRegion(int[] region, int i)
+    {
+        while (region[i] != i)
         {
-            if (area.getParent() == null)
-            {
-                this.ungrouped.add(area);
-            }
+            region[i] = region[region[i]];
+            i = region[i];
         }
-        this.log.close();
 
-        return ret;
+        return i;
+    }
+
+    private boolean joinRegions(int[] region, int a, int b)
+    {
+        a = this.findRegion(region, a);
+        b = this.findRegion(region, b);
+        if (a == b) return false;
+
+        region[Math.max(a, b)] = Math.min(a, b);
+        return true;
     }
 
-    private void locateGroups(ArrayList<PageAreaRelation> relations) throws Exception
+    private void locateGroups(ArrayList<PageAreaRelation> graph)
     {
         PageArea a, b;
         int v1, v2, vsum, groupCnt;
@@ -197,24 +982,32 @@ public class AreaProcessor2
         AreaMatch match;
         double threshold;
         double similarity;
-        int relCnt = relations.size();
-        ArrayList<PageAreaRelation> mtRelations = new ArrayList<>();
+        RelationQueue relations = this.queue;
         ArrayList<PageArea> mergeCandidates = new ArrayList<>();
-        boolean mergeTest;
 
-        this.time.toggle();
+        relations.reset(graph);
         while (relations.size() > 0)
         {
+            if (!this.budget.spend()) break;
+
             do {
-                relation = relations.get(0);
-                relations.remove(0);
+                relation = relations.poll();
                 a = relation.getA();
                 b = relation.getB();
-            } while (relations.size() > 0 && (a.getParent() != null || b.getParent() != null));
+            } while (relations.size() > 0 && (this.membership.getGroup(a) != null || this.membership.getGroup(b) != null));
 
-            if (relations.size() == 0 && a.getParent() == null && b.getParent() == null) break;
+            if (relations.size() == 0)
+            {
+                /* DOC: the clustering of the whole page never gets to its very last relation; a region
+                 * worker processes it, otherwise each region would lose its final merge */
+                if (!this.regionWorker && this.membership.getGroup(a) == null && this.membership.getGroup(b) == null) break;
+                if (this.regionWorker && (this.membership.getGroup(a) != null || this.membership.getGroup(b) != null)) break;
+            }
 
-            if (DEBUG) this.log.write("Picked "+relation.toString()+"\n");
+            if (this.trace != null) this.trace.record(ClusterTrace.Event.RELATION_PICKED, null,
+                    Math.min(a.getLeft(), b.getLeft()), Math.min(a.getTop(), b.getTop()),
+                    Math.max(a.getRight(), b.getRight()), Math.max(a.getBottom(), b.getBottom()),
+                    relation.getDirection(), relation.getSimilarity());
 
             v1 = a.getAreaCount();
             v2 = b.getAreaCount();
@@ -225,80 +1018,70 @@ public class AreaProcessor2
 //            threshold = similarityThreshold/(Math.log10(v1+v2)+1);
             threshold = this.similarityThreshold;
             similarity = relation.getSimilarity();
-            mergeTest = this.mergeTest(relation);
-            if (similarity > threshold || !mergeTest)
+            /* The merge test is needed only for the relations similar enough */
+            if (similarity > threshold)
             {
-                if (similarity <= threshold && !mergeTest)
-                {
-                    if (DEBUG) this.log.write("Merge attempt failed\n");
-                    mtRelations.add(relation);
-                }
-                else if (similarity >= threshold)
-                {
-                    if (DEBUG) this.log.write("Similarity comparison failed: "+similarity+" >= "+threshold+"\n");
-                }
-                if (relations.size() == 0 && mtRelations.size() < relCnt)
-                {
-                    relations.addAll(mtRelations);
-                    relCnt = relations.size();
-                    mtRelations.clear();
-                }
+                if (this.trace != null) this.trace.record(ClusterTrace.Event.MERGE_REJECTED, ClusterTrace.Reason.SIMILARITY, a, vsum, similarity);
+                continue;
+            }
+            /* DOC: a relation failing the merge test is never tried again. The test depends
+             * on its two areas and the leaf index only. The leaves don't change during a run,
+             * neither does an area once it is made (a merge always creates a new group), and
+             * once one of the areas is merged the relation is dead: a grouped leaf is skipped,
+             * a former group would fail the same way. So the retries could never succeed;
+             * for the same reason no pair of areas is ever tested twice */
+            if (!this.mergeTest(relation))
+            {
+                if (this.trace != null) this.trace.record(ClusterTrace.Event.MERGE_REJECTED, ClusterTrace.Reason.MERGE_TEST, a, vsum, similarity);
                 continue;
             }
 
+            this.membership.begin();
+            this.grownLeaves.resetQuick();
             group = this.createGroup(a, b);
             mergeCandidates.clear();
-            if (DEBUG) this.log.write("Group: "+group.getTop()+"-"+group.getLeft()+"("+group.getWidth()+"x"+group.getHeight()+") - ("+v1+", "+v2+")\n");
+            if (this.trace != null) this.trace.record(ClusterTrace.Event.GROUP_CREATED, null, group, vsum, similarity);
 
-            match = new AreaMatch();
-            this.groupTree.intersects(group.getRectangle(), match);
             /* It will always overlap with the two areas already in the group */
-            if (match.getIds().size() > groupCnt)
+            if (this.countExceeds(this.groupTree, group.getRectangle(), groupCnt))
             {
-                a.reclaimChildren();
-                b.reclaimChildren();
-                group.giveUpChildren();
+                if (this.trace != null) this.trace.record(ClusterTrace.Event.MERGE_REJECTED, ClusterTrace.Reason.GROUP_OVERLAP, group, vsum, similarity);
+                this.membership.rollback();
                 continue;
             }
 
             do {
-                match = new AreaMatch();
-                this.areaTree.intersects(group.getRectangle(), match);
                 /* It will always overlap with the two areas already in the group */
-                area_overlap = (match.getIds().size() > vsum);
+                area_overlap = this.areaCountExceeds(group.getRectangle(), vsum);
 
                 if (area_overlap)
                 {
-                    if (DEBUG) this.log.write("overlap = true; vsum = "+vsum+"; matches = "+match.getIds().size()+"\n");
+                    /* Only now we need to know which areas these are */
+                    match = new AreaMatch();
+                    this.intersectsAreas(group.getRectangle(), match);
                     /* First try to include all those overlapping areas in the group */
                     if (!this.growGroup(group, match.getIds(), mergeCandidates))
                     {
-                        if (DEBUG) this.log.write("group grow failed\n");
-                        a.reclaimChildren();
-                        b.reclaimChildren();
-                        group.giveUpChildren();
+                        if (this.trace != null) this.trace.record(ClusterTrace.Event.MERGE_REJECTED, ClusterTrace.Reason.OTHER_GROUP, group, vsum, similarity);
+                        this.membership.rollback();
                         break;
                     }
                     else
                     {
                         vsum = group.getChildren().size()+mergeCandidates.size();
-                        if (DEBUG) this.log.write("updated vsum: " + vsum+"\n");
+                        if (this.trace != null) this.trace.record(ClusterTrace.Event.GROUP_GROWN, null, group, vsum, similarity);
                     }
                 }
                 else
                 {
-                    if (DEBUG) this.log.write("overlap = false; vsum = "+vsum+"; matches = "+match.getIds().size()+"\n");
                     if (mergeCandidates.size() > 0)
                     {
                         /* The group can't be expanded more by overlapping children,
                          * try to merge those areas that might be somewhere in between them */
-                        if (DEBUG) this.log.write("trying to merge group "+group.toString()+" and "+mergeCandidates.size()+" candidates\n");
                         if (!this.tryMerge(group, mergeCandidates))
                         {
-                            if (DEBUG) this.log.write("merging failed\n");
-                            a.reclaimChildren();
-                            b.reclaimChildren();
-                            group.giveUpChildren();
+                            if (this.trace != null) this.trace.record(ClusterTrace.Event.MERGE_REJECTED, ClusterTrace.Reason.NEW_AREAS, group, vsum, similarity);
+                            this.membership.rollback();
                             area_overlap = true; /* Need to set this for the condition below */
                             break;
                         }
@@ -308,33 +1091,60 @@ public class AreaProcessor2
                 }
             } while (area_overlap);
 
+            /* The group may have grown over a fixed group, these are not among the areas */
+            if (!area_overlap && this.overlapsFixedGroup(group))
+            {
+                if (this.trace != null) this.trace.record(ClusterTrace.Event.MERGE_REJECTED, ClusterTrace.Reason.GROUP_OVERLAP, group, vsum, similarity);
+                this.membership.rollback();
+                continue;
+            }
+
             if (!area_overlap)
             {
                 /* Now we have to add children completely */
-                if (DEBUG) this.log.write("Final Group: "+group.getTop()+"-"+group.getLeft()+"("+group.getWidth()+"x"+group.getHeight()+")\n");
+                if (this.trace != null) this.trace.record(ClusterTrace.Event.GROUP_COMMITTED, null, group, group.getChildren().size(), similarity);
+                this.membership.commit();
+                this.recordMerge(a, b, group, similarity);
                 this.transferNeighbors(a, b, group);
                 this.transferRelations(a, b, group, relations);
-                if (a.getId() != null) this.groupMap.remove(a.getId());
-                if (b.getId() != null) this.groupMap.remove(b.getId());
-                group.calculateId();
-                this.groupMap.put(group.getId(), group);
+                if (a.getId() >= 0) this.removeGroup(a);
+                if (b.getId() >= 0) this.removeGroup(b);
+                this.addGroup(group);
                 this.groupTree.delete(a.getRectangle(), 0);
                 this.groupTree.delete(b.getRectangle(), 0);
                 this.groupTree.add(group.getRectangle(), 0);
             }
+        }
+    }
 
-            if (relations.size() == 0 && mtRelations.size() < relCnt)
-            {
-                relations.addAll(mtRelations);
-                relCnt = relations.size();
-                mtRelations.clear();
-            }
+    /**
+     * Gives the group the next handle.
+     */
+    private void addGroup(PageArea group)
+    {
+        group.setId(this.groups.size());
+        this.groups.add(group);
+        this.liveGroupCnt++;
+    }
+
+    private boolean overlapsFixedGroup(PageArea group)
+    {
+        for (PageArea g: this.fixedGroups)
+        {
+            if (g.overlaps(group)) return true;
         }
-        this.time.toggle();
-        System.out.println(this.time.getTotal()/1000000 + " ms");
+
+        return false;
+    }
+
+        private void removeGroup(PageArea group)
+    {
+        this.groups.set(group.getId(), null);
+        group.setId(-1);
+        this.liveGroupCnt--;
     }
 
-    private boolean growGroup(PageArea group, ArrayList<Integer> matches, ArrayList<PageArea> mergeCandidates) throws IOException
+    private boolean growGroup(PageArea group, ArrayList<Integer> matches, ArrayList<PageArea> mergeCandidates)
     {
         boolean merged = true;
         PageArea area;
@@ -357,18 +1167,15 @@ public class AreaProcessor2
             for (int i = 0 ; i < areas.size() ; i++)
             {
                 area = areas.get(i);
-                if (DEBUG) this.log.write("area test for merge: "+area.toString());
-                if (area.getParent() == group)
+                if (this.membership.getGroup(area) == group)
                 {
-                    if (DEBUG) this.log.write(" (already in the group)\n");
                     areas.remove(i);
                     i--;
                     continue;
                 }
-                else if (area.getParent() != null)
+                else if (this.membership.getGroup(area) != null)
                 {
                     /* This belongs to another group - that's a show stopper */
-                    if (DEBUG) this.log.write(" (belongs to another group)\n");
                     return false;
                 }
                 else
@@ -378,8 +1185,8 @@ public class AreaProcessor2
                         if (area.overlaps(child))
                         {
                             merged = true;
-                            group.addChild(area);
-                            if (DEBUG) this.log.write(" (merged - overlap)\n");
+                            this.addToGroup(group, area);
+                            if (this.trace != null) this.trace.record(ClusterTrace.Event.AREA_ADDED, null, area, group.getChildren().size(), 0);
                             break;
                         }
                     }
@@ -396,7 +1203,6 @@ public class AreaProcessor2
                         {
                             mergeCandidates.add(area);
                         }
-                        if (DEBUG) this.log.write(" (not merged)\n");
                     }
                 }
             }
@@ -405,47 +1211,43 @@ public class AreaProcessor2
         return true;
     }
 
-    private boolean tryMerge(PageArea group, ArrayList<PageArea> areas) throws IOException
+    private boolean tryMerge(PageArea group, ArrayList<PageArea> areas)
     {
         PageArea tmpArea;
         PageArea mark;
         PageArea tmpGroup = new PageArea(group);
         AreaMatch match;
-        int matchCnt = 0;
         int candidateCnt = areas.size();
         boolean merge;
         ArrayList<PageArea> mergeList = new ArrayList<>();
 
         for (PageArea area: areas)
         {
-            if (DEBUG) this.log.write("candidate: "+area.toString());
             mark = new PageArea(tmpGroup);
             tmpGroup.addChild(area, true);
             if (group.contains(tmpGroup))
             {
                 /* The new area doesn't make the group expand - it can be added */
-                if (DEBUG) this.log.write(" is within the group\n");
-                group.addChild(area);
+                this.addToGroup(group, area);
+                if (this.trace != null) this.trace.record(ClusterTrace.Event.AREA_ADDED, null, area, group.getChildren().size(), 0);
                 candidateCnt--;
             }
             else
             {
-                match = new AreaMatch();
                 tmpGroup.resetRectangle();
-                this.areaTree.intersects(tmpGroup.getRectangle(), match);
-                matchCnt = match.getIds().size();
-                if (matchCnt > group.getChildren().size()+candidateCnt)
+                if (this.areaCountExceeds(tmpGroup.getRectangle(), group.getChildren().size()+candidateCnt))
                 {
+                    match = new AreaMatch();
+                    this.intersectsAreas(tmpGroup.getRectangle(), match);
                     merge = false;
                     for (Integer i: match.getIds())
                     {
                         tmpArea = this.areas.get(i);
-                        if (group.getChildren().contains(tmpArea)) continue;
+                        if (this.membership.getGroup(i) == group) continue;
                         if (areas.contains(tmpArea)) continue;
                         if (tmpArea.getDistanceAbsolute(mark) <= 1)
                         {
                             mergeList.add(area);
-                            if (DEBUG) this.log.write(" brings new adjacent box\n");
                             merge = true;
                             break;
                         }
@@ -453,7 +1255,6 @@ public class AreaProcessor2
 
                     if (!merge)
                     {
-                        if (DEBUG) this.log.write(" would bring more boxes to the group\n");
                         return false;
                     }
                 }
@@ -461,8 +1262,8 @@ public class AreaProcessor2
                 {
                     /* Adding the area to the group extended the group but
                      * it didn't bring in any new areas */
-                    if (DEBUG) this.log.write(" expands the group but can be included\n");
-                    group.addChild(area);
+                    this.addToGroup(group, area);
+                    if (this.trace != null) this.trace.record(ClusterTrace.Event.AREA_ADDED, null, area, group.getChildren().size(), 0);
                     candidateCnt--;
                 }
             }
@@ -470,8 +1271,8 @@ public class AreaProcessor2
 
         for (PageArea a: mergeList)
         {
-            if (DEBUG) this.log.write("merging "+a.toString()+"\n");
-            group.addChild(a);
+            this.addToGroup(group, a);
+            if (this.trace != null) this.trace.record(ClusterTrace.Event.AREA_ADDED, null, a, group.getChildren().size(), 0);
         }
 
         return true;
@@ -485,10 +1286,56 @@ public class AreaProcessor2
 
         group.mergeWith(a);
         group.mergeWith(b);
+        this.membership.merge(group, a, b);
 
         return group;
     }
 
+    private void addToGroup(PageArea group, PageArea area)
+    {
+        if (this.membership.getGroup(area) != group)
+        {
+            this.grownLeaves.add(this.membership.indexOf(area));
+        }
+        group.addChild(area);
+        this.membership.add(group, area);
+    }
+
+    private void recordMerge(PageArea a, PageArea b, PageArea group, double similarity)
+    {
+        int[] nodes = new int[2+this.grownLeaves.size()];
+
+        nodes[0] = this.getNode(a);
+        nodes[1] = this.getNode(b);
+        for (int i = 0; i < this.grownLeaves.size(); i++)
+        {
+            nodes[2+i] = this.grownLeaves.get(i);
+        }
+
+        this.groupNodes.remove(a);
+        this.groupNodes.remove(b);
+        /* The ids of the groups move when leaves are appended, their order doesn't */
+        this.groupNodes.put(group, this.mergeTree.add(group, nodes, similarity)-this.mergeTree.getLeafCount());
+    }
+
+    private int getNode(PageArea area)
+    {
+        Integer node = this.groupNodes.get(area);
+
+        if (node == null) return this.membership.indexOf(area);
+        else return this.mergeTree.getLeafCount()+node;
+    }
+
+    /**
+     * Returns the history of the merges of the last extractGroups() call. When the
+     * clustering runs with the threshold set to 1, the groups for any lower threshold
+     * can be cut from the tree without clustering again.
+     */
+    public MergeTree getMergeTree()
+    {
+        return this.mergeTree;
+    }
+
 
     private boolean mergeTest(PageAreaRelation rel)
     {
@@ -531,18 +1378,35 @@ public class AreaProcessor2
 
     private boolean mergeTestAlignment(PageArea a, PageArea b)
     {
-        PageArea tmpArea;
-        AreaMatch match;
+        Rectangle bounds;
         int areaCnt;
 
-        tmpArea = new PageArea(a);
-        tmpArea.addChild(b, true);
+        /* The bounds of both, no need to copy the area */
+        bounds = new Rectangle(Math.min(a.getLeft(), b.getLeft()), Math.min(a.getTop(), b.getTop()),
+                               Math.max(a.getRight(), b.getRight()), Math.max(a.getBottom(), b.getBottom()));
         areaCnt = a.getAreaCount()+b.getAreaCount();
 
-        match = new AreaMatch();
-        this.areaTree.intersects(tmpArea.getRectangle(), match);
-        if (match.getIds().size() <= areaCnt) return true;
-        else return false;
+        return !this.areaCountExceeds(bounds, areaCnt);
+    }
+
+    /**
+     * Checks whether more than limit areas of the tree intersect the rectangle.
+     * The query stops at the first area over the limit and doesn't collect any ids.
+     */
+    private boolean countExceeds(SpatialIndex tree, Rectangle r, int limit)
+    {
+        this.counter.reset(limit);
+        tree.intersects(r, this.counter);
+
+        return this.counter.isExceeded();
+    }
+
+    private boolean areaCountExceeds(Rectangle r, int limit)
+    {
+        this.counter.reset(limit);
+        this.intersectsAreas(r, this.counter);
+
+        return this.counter.isExceeded();
     }
 
     private boolean mergeTestDensity(PageArea a, PageArea b, int shape)
@@ -580,15 +1444,14 @@ public class AreaProcessor2
         else return false;
     }
 
-    private void transferRelations(PageArea oldGroup1, PageArea oldGroup2, PageArea newGroup, List<PageAreaRelation> relations) throws IOException
+    private void transferRelations(PageArea oldGroup1, PageArea oldGroup2, PageArea newGroup, RelationQueue relations)
     {
-        int i;
-        PageAreaRelation rel;
-        PageAreaRelation bestRel;
         PageArea candidate;
         double tmpSimilarity;
+        PageAreaRelation bestRel;
         HashMap<PageArea, PageAreaRelation> tmpRelations = new HashMap<>();
         HashSet<PageArea> merged = new HashSet<>();
+        ArrayList<PageAreaRelation> affected = new ArrayList<>();
 
         merged.add(oldGroup1);
         merged.add(oldGroup2);
@@ -597,75 +1460,82 @@ public class AreaProcessor2
             merged.add(child);
         }
 
-        for (i = 0; i < relations.size(); i++)
+        /* Only the relations incident to the merged areas are visited,
+         * each of them just once (from the first end point in the group) */
+        for (PageArea area: merged)
         {
-            rel = relations.get(i);
-
-            if (merged.contains(rel.getA())) candidate = rel.getB();
-            else if (merged.contains(rel.getB())) candidate = rel.getA();
-            else candidate = null;
-
-            if (candidate != null)
+            for (PageAreaRelation rel: relations.getIncident(area))
             {
-                if (merged.contains(candidate))
+                if (rel.getA() == area || !merged.contains(rel.getA()))
                 {
-                    /* This is a corner case that both endpoints
-                     * of the relation are in the new group */
-                    // TODO: do some recalculations here like H/V edge count
-                    if (DEBUG) this.log.write("remove "+rel.toString()+" (within group)\n");
-                    if (rel.getDirection() == PageAreaRelation.DIRECTION_HORIZONTAL)
-                    {
-                        newGroup.addHEdgeCount(rel.getCardinality());
-                    }
-                    else
-                    {
-                        newGroup.addVEdgeCount(rel.getCardinality());
-                    }
-                    relations.remove(i); /* Using "i" here instead of "rel" boosts perf. (6s -> 2.5s) */
-                    i--; // since we removed the relation, we need to scan the one that took its place
-                    continue;
+                    affected.add(rel);
                 }
+            }
+        }
+        /* DOC: the relations have to be visited in the queue order, the similarity
+         * sums and edge counts below depend on it */
+        relations.sort(affected);
 
-                /* This shouldn't happen but still ... */
-                if (candidate.getParent() != null)
-                {
-                    candidate = candidate.getParent();
-                }
+        for (PageAreaRelation rel: affected)
+        {
+            relations.remove(rel);
 
-                if (tmpRelations.containsKey(candidate))
+            if (merged.contains(rel.getA())) candidate = rel.getB();
+            else candidate = rel.getA();
+
+            if (merged.contains(candidate))
+            {
+                /* This is a corner case that both endpoints
+                 * of the relation are in the new group */
+                // TODO: do some recalculations here like H/V edge count
+                if (this.trace != null) this.trace.record(ClusterTrace.Event.RELATION_REMOVED, null, rel.getA(), rel.getCardinality(), rel.getSimilarity());
+                if (rel.getDirection() == PageAreaRelation.DIRECTION_HORIZONTAL)
                 {
-                    bestRel = tmpRelations.get(candidate);
-                    bestRel.addCardinality(rel.getCardinality());
-                    bestRel.addSimilarity(rel.getSimilarity()*rel.getCardinality());
+                    newGroup.addHEdgeCount(rel.getCardinality());
                 }
                 else
                 {
-                    tmpSimilarity = rel.getSimilarity()*rel.getCardinality();
-                    bestRel = new PageAreaRelation(newGroup, candidate, tmpSimilarity, rel.getDirection());
-                    bestRel.setCardinality(rel.getCardinality());
-                    tmpRelations.put(candidate, bestRel);
+                    newGroup.addVEdgeCount(rel.getCardinality());
                 }
-                if (DEBUG) this.log.write("remove "+rel.toString()+"\n");
-                relations.remove(i); /* Using "i" here instead of "rel" boosts perf. (6s -> 2.5s) */
-                i--; // since we removed the relation, we need to scan the one that took its place
+                continue;
             }
+
+            /* This shouldn't happen but still ... */
+            if (this.membership.getGroup(candidate) != null)
+            {
+                candidate = this.membership.getGroup(candidate);
+            }
+
+            if (tmpRelations.containsKey(candidate))
+            {
+                bestRel = tmpRelations.get(candidate);
+                bestRel.addCardinality(rel.getCardinality());
+                bestRel.addSimilarity(rel.getSimilarity()*rel.getCardinality());
+            }
+            else
+            {
+                tmpSimilarity = rel.getSimilarity()*rel.getCardinality();
+                bestRel = new PageAreaRelation(newGroup, candidate, tmpSimilarity, rel.getDirection());
+                bestRel.setCardinality(rel.getCardinality());
+                tmpRelations.put(candidate, bestRel);
+            }
+            if (this.trace != null) this.trace.record(ClusterTrace.Event.RELATION_REMOVED, null, rel.getA(), rel.getCardinality(), rel.getSimilarity());
         }
 
+        /* The new relations go after the equal ones */
         for (Map.Entry<PageArea, PageAreaRelation> entry : tmpRelations.entrySet())
         {
-            rel = entry.getValue();
-            rel.setSimilarity(rel.getSimilarity()/rel.getCardinality());
-            relations.add(rel);
+            bestRel = entry.getValue();
+            bestRel.setSimilarity(bestRel.getSimilarity()/bestRel.getCardinality());
+            relations.add(bestRel);
         }
-
-
-        Collections.sort(relations, new RelationComparator());
     }
 
     private void transferNeighbors(PageArea oldGroup1, PageArea oldGroup2, PageArea newGroup)
     {
         PageArea area;
         PageAreaRelation rel;
+        NeighborMap neighbors;
         ArrayList<PageArea> delList = new ArrayList<>();
         HashMap<PageArea, Integer> recalc = new HashMap<>();
         /* children is a hash tab giving information about
@@ -684,10 +1554,11 @@ public class AreaProcessor2
         {
             delList.clear();
             /* We can also inspect children of the merged groups - they don't have any neighbors */
-            for (Map.Entry<PageArea, PageAreaRelation> entry : a.getNeighbors().entrySet())
+            neighbors = a.getNeighbors();
+            for (int i = neighbors.first(); i >= 0; i = neighbors.next(i))
             {
-                area = entry.getKey();
-                rel = entry.getValue();
+                area = neighbors.getArea(i);
+                rel = neighbors.getRelation(i);
                 delList.add(area);
                 recalc.put(area, 0);
                 if (!children.containsKey(area))
@@ -711,116 +1582,413 @@ public class AreaProcessor2
     }
 
 
-    private ArrayList<PageAreaRelation> getAreaGraph(List<PageArea> areas)
+    ArrayList<PageAreaRelation> getAreaGraph(final List<PageArea> areas) throws Exception
     {
-        ArrayList<PageAreaRelation> relations = new ArrayList<>();
-        ArrayList<PageAreaRelation> tmpRelations = new ArrayList<>();
-        int edge;
+        final ArrayList<PageAreaRelation> relations = this.graph;
+        final NeighborBatch[] batches;
+        NeighborBatch batch;
         PageArea a, b;
-        Rectangle selector;
-        double similarity;
+        PageAreaRelation rel;
 
+        relations.clear();
+        if (this.batches == null || this.batches.length < areas.size())
+        {
+            this.batches = new NeighborBatch[areas.size()];
+        }
+        batches = this.batches;
+        if (this.nearest == null || this.nearest.length < 4*areas.size())
+        {
+            this.nearest = new int[4*areas.size()];
+        }
+        if (this.neighborSearch == NEIGHBOR_SEARCH_SWEEP && areas == this.areas && this.appendedTree == null)
+        {
+            this.sweepFinder = new SweepNeighborFinder(this.store, this.areaTree, this.pageWidth, this.pageHeight);
+        }
+        else
+        {
+            this.sweepFinder = null;
+        }
+
+        /* DOC: the neighbor search only reads the area tree, so it can run in parallel;
+         * the neighbors are then registered in the area order to keep the graph deterministic */
+        this.forEachIndex(areas.size(), i -> {
+            if (batches[i] == null) batches[i] = new NeighborBatch();
+            this.findNeighbors(areas.get(i), i, batches[i]);
+        });
 
         for (int i = 0; i < areas.size(); i++)
         {
+            batch = batches[i];
             a = areas.get(i);
-            /* First go right */
-            /* DOC: the a.right+1 is for optimization, originally it was a.left */
-            /* DOC: the selector is 1px from each side narrower so we can detect true overlaps */
-            selector = new Rectangle(a.getRight()+1, a.getTop()+1, this.pageWidth, a.getBottom()-1);
-            tmpRelations = this.findRelations(a, selector, PageAreaRelation.DIRECTION_HORIZONTAL);
-            this.processRelations(tmpRelations, relations, true);
-
-            /* Now go down */
-            /* DOC: the a.bottom+1 is for optimization, originally it was a.top */
-            /* DOC: the selector is 1px from each side narrower so we can detect true overlaps */
-            selector = new Rectangle(a.getLeft()+1, a.getBottom()+1, a.getRight()-1, this.pageHeight);
-            tmpRelations = this.findRelations(a, selector, PageAreaRelation.DIRECTION_VERTICAL);
-            this.processRelations(tmpRelations, relations, true);
-
-            /* DOC: Now just to be sure, go up and left, but don't add those into the global list, as we already have them */
-            /* First left */
-            edge = (a.getLeft()>0)?(a.getLeft()-1):0;
-            selector = new Rectangle(0, a.getTop()+1, edge, a.getBottom()-1);
-            tmpRelations = this.findRelations(a, selector, PageAreaRelation.DIRECTION_HORIZONTAL);
-            this.processRelations(tmpRelations, relations, false);
-
-            /* And finally up */
-            edge = (a.getTop()>0)?(a.getTop()-1):0;
-            selector = new Rectangle(a.getLeft()+1, 0, a.getRight()-1, edge);
-            tmpRelations = this.findRelations(a, selector, PageAreaRelation.DIRECTION_VERTICAL);
-            this.processRelations(tmpRelations, relations, false);
-        }
+            for (int e = 0; e < batch.size; e++)
+            {
+                b = this.areas.get(batch.b[e]);
+                a.addNeighborIfAbsent(b, batch.direction[e], 1);
+                if (!batch.forward[e]) continue;
 
-        for (PageArea area: areas)
-        {
-            area.calculateNeighborDistances();
+                rel = new PageAreaRelation(a, b, 1.0, batch.direction[e]);
+                rel.setAbsoluteDistance(batch.distance[e]);
+                relations.add(rel);
+            }
         }
 
+        this.forEachIndex(areas.size(), i -> areas.get(i).calculateNeighborDistances());
+
         /* DOC: we need to compute distance now because we didn't know
          * all the absolute distances before
          */
-        for (PageAreaRelation rel: relations)
+        this.evaluateRelations(relations);
+
+        Collections.sort(relations, new RelationComparator());
+
+        return relations;
+    }
+
+    /**
+     * Sets the alignment scores and the similarities of the relations. The features
+     * are read from the areas (in parallel), then the similarity model evaluates
+     * all of them at once.
+     */
+    private void evaluateRelations(final List<PageAreaRelation> relations) throws Exception
+    {
+        int cnt = relations.size();
+        final double[] shape, color, position;
+        final int[] alignment;
+
+        if (this.similarityResult == null || this.similarityResult.length < cnt)
+        {
+            this.shapeFeature = new double[cnt];
+            this.colorFeature = new double[cnt];
+            this.positionFeature = new double[cnt];
+            this.alignmentFeature = new int[cnt];
+            this.similarityResult = new double[cnt];
+        }
+        shape = this.shapeFeature;
+        color = this.colorFeature;
+        position = this.positionFeature;
+        alignment = this.alignmentFeature;
+
+        this.alignmentIndex.computeScores(relations);
+        this.forEachIndex(cnt, i -> {
+            PageAreaRelation rel = relations.get(i);
+            shape[i] = rel.getA().getShapeSimilarity(rel.getB());
+            color[i] = rel.getA().getColorSimilarity(rel.getB());
+            position[i] = rel.getA().getDistanceNeighbor(rel.getB());
+            alignment[i] = rel.getAlignmentScore();
+        });
+
+        this.similarityModel.evaluate(shape, color, position, alignment, this.similarityResult, cnt);
+        for (int i = 0; i < cnt; i++)
+        {
+            relations.get(i).setSimilarity(this.similarityResult[i]);
+        }
+    }
+
+    private NeighborBatch findNeighbors(PageArea a, int index, NeighborBatch batch)
+    {
+        batch.clear();
+
+        /* First go right, then down */
+        this.findNearest(a, index, SweepNeighborFinder.DIR_RIGHT, true, batch);
+        this.findNearest(a, index, SweepNeighborFinder.DIR_DOWN, true, batch);
+
+        /* DOC: Now just to be sure, go up and left, but don't add those into the global list, as we already have them */
+        this.findNearest(a, index, SweepNeighborFinder.DIR_LEFT, false, batch);
+        this.findNearest(a, index, SweepNeighborFinder.DIR_UP, false, batch);
+
+        return batch;
+    }
+
+    private Rectangle getSelector(PageArea a, int direction)
+    {
+        int edge;
+
+        switch (direction)
+        {
+            case SweepNeighborFinder.DIR_RIGHT:
+                /* DOC: the a.right+1 is for optimization, originally it was a.left */
+                /* DOC: the selector is 1px from each side narrower so we can detect true overlaps */
+                return new Rectangle(a.getRight()+1, a.getTop()+1, this.pageWidth, a.getBottom()-1);
+            case SweepNeighborFinder.DIR_DOWN:
+                /* DOC: the a.bottom+1 is for optimization, originally it was a.top */
+                /* DOC: the selector is 1px from each side narrower so we can detect true overlaps */
+                return new Rectangle(a.getLeft()+1, a.getBottom()+1, a.getRight()-1, this.pageHeight);
+            case SweepNeighborFinder.DIR_LEFT:
+                edge = (a.getLeft()>0)?(a.getLeft()-1):0;
+                return new Rectangle(0, a.getTop()+1, edge, a.getBottom()-1);
+            default:
+                edge = (a.getTop()>0)?(a.getTop()-1):0;
+                return new Rectangle(a.getLeft()+1, 0, a.getRight()-1, edge);
+        }
+    }
+
+    /**
+     * Builds the relations of the leaves appended from first on. The new leaves are
+     * searched the same way as in getAreaGraph(), for the existing ones only the new
+     * leaves are checked and kept when they are not farther than the nearest neighbors
+     * found before. Relations with grouped areas are made with their groups and the
+     * relations between the same two areas are joined as in transferRelations().
+     */
+    private ArrayList<PageAreaRelation> getAppendedGraph(final int first) throws Exception
+    {
+        final NeighborBatch[] batches = new NeighborBatch[this.areas.size()-first];
+        NeighborBatch existing = new NeighborBatch();
+        HashMap<Integer, TIntArrayList> candidates = new HashMap<>();
+        TIntArrayList list;
+        ArrayList<PageAreaRelation> relations = new ArrayList<>();
+        HashMap<PageArea, HashMap<PageArea, PageAreaRelation>> joined = new HashMap<>();
+        HashSet<PageArea> touched = new HashSet<>();
+        AreaMatch match;
+        PageArea leaf, area;
+        int key, dist, dir;
+
+        this.sweepFinder = null;
+        if (this.nearest.length < 4*this.areas.size()) this.nearest = Arrays.copyOf(this.nearest, 4*this.areas.size());
+        Arrays.fill(this.nearest, 4*first, 4*this.areas.size(), Integer.MAX_VALUE);
+
+        this.forEachIndex(batches.length, i -> batches[i] = this.findNeighbors(this.areas.get(first+i), first+i, new NeighborBatch()));
+
+        /* The existing leaves in the rows and columns of the new ones are the only ones that may see them */
+        for (int i = first; i < this.areas.size(); i++)
+        {
+            leaf = this.areas.get(i);
+            match = new AreaMatch();
+            this.intersectsAreas(new Rectangle(Integer.MIN_VALUE, leaf.getTop(), Integer.MAX_VALUE, leaf.getBottom()), match);
+            this.intersectsAreas(new Rectangle(leaf.getLeft(), Integer.MIN_VALUE, leaf.getRight(), Integer.MAX_VALUE), match);
+            /* An area crossing the leaf comes from both queries */
+            for (Integer j: new TreeSet<>(match.getIds()))
+            {
+                if (j >= first) continue;
+
+                area = this.areas.get(j);
+                for (dir = 0; dir < 4; dir++)
+                {
+                    if (!this.intersects(this.getSelector(area, dir), leaf)) continue;
+
+                    key = 4*j+dir;
+                    list = candidates.get(key);
+                    if (list == null)
+                    {
+                        list = new TIntArrayList();
+                        candidates.put(key, list);
+                    }
+                    list.add(i);
+                }
+            }
+        }
+
+        for (Map.Entry<Integer, TIntArrayList> entry: candidates.entrySet())
+        {
+            key = entry.getKey();
+            dir = key % 4;
+            entry.getValue().forEach(existing);
+            dist = existing.measureCandidates(this.areas.get(key/4), this.areas);
+            if (dist > this.nearest[key])
+            {
+                existing.dropCandidates();
+                continue;
+            }
+
+            this.nearest[key] = dist;
+            /* Right and down make the graph as in getAreaGraph() */
+            existing.addNearest(key/4, (dir % 2 == 0) ? PageAreaRelation.DIRECTION_HORIZONTAL : PageAreaRelation.DIRECTION_VERTICAL,
+                                dir == SweepNeighborFinder.DIR_RIGHT || dir == SweepNeighborFinder.DIR_DOWN);
+        }
+
+        /* Register the neighbors of all the edges, map the graph edges to the groups */
+        for (NeighborBatch batch: batches)
+        {
+            this.addAppendedNeighbors(batch, touched);
+        }
+        this.addAppendedNeighbors(existing, touched);
+
+        for (NeighborBatch batch: batches)
+        {
+            this.joinAppendedEdges(batch, joined, relations);
+        }
+        this.joinAppendedEdges(existing, joined, relations);
+
+        for (PageArea a: touched)
         {
-            a = rel.getA();
-            b = rel.getB();
-            rel.setAlignmentScore(rel.computeAlignmentScore());
-            similarity = a.getSimilarity(b, rel.getAlignmentScore());
-            rel.setSimilarity(similarity);
+            a.calculateNeighborDistances();
         }
+        this.evaluateRelations(relations);
 
         Collections.sort(relations, new RelationComparator());
 
         return relations;
     }
 
-    private ArrayList<PageAreaRelation> findRelations(PageArea area, Rectangle selector, int direction)
+    private void addAppendedNeighbors(NeighborBatch batch, HashSet<PageArea> touched)
     {
-        AreaMatch match;
-        PageArea b;
+        PageArea x, y;
+
+        /* The edges going right and down first */
+        for (int pass = 0; pass < 2; pass++)
+        {
+            for (int e = 0; e < batch.size; e++)
+            {
+                if (batch.forward[e] != (pass == 0)) continue;
+
+                x = this.getTopArea(this.areas.get(batch.a[e]));
+                y = this.getTopArea(this.areas.get(batch.b[e]));
+                if (x == y || x.getNeighbors().containsKey(y)) continue;
+
+                x.addNeighbor(y, batch.direction[e], 1);
+                touched.add(x);
+                touched.add(y);
+            }
+        }
+    }
+
+    /**
+     * Adds the relations of the groups and the ungrouped leaves joined by the graph edges of the batch.
+     */
+    private void joinAppendedEdges(NeighborBatch batch, HashMap<PageArea, HashMap<PageArea, PageAreaRelation>> joined, ArrayList<PageAreaRelation> relations)
+    {
+        PageArea x, y;
         PageAreaRelation rel;
-        ArrayList<PageAreaRelation> tmpRelations = new ArrayList<>();
 
-        match = new AreaMatch();
-        this.areaTree.intersects(selector, match);
-        for (Integer index: match.getIds())
+        for (int e = 0; e < batch.size; e++)
+        {
+            if (!batch.forward[e]) continue;
+
+            x = this.getTopArea(this.areas.get(batch.a[e]));
+            y = this.getTopArea(this.areas.get(batch.b[e]));
+            if (x == y) continue;
+
+            if (joined.containsKey(y) && joined.get(y).containsKey(x))
+            {
+                rel = joined.get(y).get(x);
+            }
+            else
+            {
+                if (!joined.containsKey(x)) joined.put(x, new HashMap<>());
+                rel = joined.get(x).get(y);
+            }
+
+            if (rel == null)
+            {
+                rel = new PageAreaRelation(x, y, 1.0, batch.direction[e]);
+                rel.setAbsoluteDistance(x.getDistanceAbsolute(y));
+                joined.get(x).put(y, rel);
+                relations.add(rel);
+            }
+            else
+            {
+                rel.addCardinality(1);
+            }
+        }
+    }
+
+    private PageArea getTopArea(PageArea leaf)
+    {
+        PageArea group = this.membership.getGroup(leaf);
+
+        if (group == null) return leaf;
+        else return group;
+    }
+
+    private boolean intersects(Rectangle r, PageArea a)
+    {
+        return r.minX <= a.getRight() && r.maxX >= a.getLeft() &&
+               r.minY <= a.getBottom() && r.maxY >= a.getTop();
+    }
+
+    /**
+     * Adds the edges to the nearest leaves in the direction to the batch
+     * and keeps their distance (Integer.MAX_VALUE when there are none).
+     */
+    private void findNearest(PageArea area, int index, int sweepDirection, boolean forward, NeighborBatch batch)
+    {
+        int[] nearest;
+        int direction;
+
+        if (sweepDirection == SweepNeighborFinder.DIR_RIGHT || sweepDirection == SweepNeighborFinder.DIR_LEFT)
+        {
+            direction = PageAreaRelation.DIRECTION_HORIZONTAL;
+        }
+        else
+        {
+            direction = PageAreaRelation.DIRECTION_VERTICAL;
+        }
+
+        nearest = (this.sweepFinder != null) ? this.sweepFinder.getNeighbors(index, sweepDirection) : null;
+        if (nearest != null)
+        {
+            /* The sweep already gives just the nearest areas */
+            for (int i: nearest)
+            {
+                batch.execute(i);
+            }
+        }
+        else
+        {
+            this.intersectsAreas(this.getSelector(area, sweepDirection), batch);
+        }
+
+        /* DOC: more boxes can have the same distance */
+        this.nearest[4*index+sweepDirection] = batch.measureCandidates(area, this.areas);
+        batch.addNearest(index, direction, forward);
+    }
+
+    /**
+     * Runs the action for all indexes from 0 to cnt-1, in parallel if the parallelism is higher than 1.
+     * The action must only modify data belonging to its own index.
+     */
+    private void forEachIndex(int cnt, IntConsumer action) throws Exception
+    {
+        if (this.parallelism <= 1)
         {
-            b = areas.get(index);
-            if (area == b) continue;
-            rel = new PageAreaRelation(area, b, 1.0, direction);
-            rel.setAbsoluteDistance(area.getDistanceAbsolute(b));
-            tmpRelations.add(rel);
+            forEachIndex(1, cnt, action);
+            return;
         }
 
-        return tmpRelations;
+        if (this.pool != null && this.pool.getParallelism() != this.parallelism) this.close();
+        if (this.pool == null) this.pool = new ForkJoinPool(this.parallelism);
+        this.pool.submit(() -> IntStream.range(0, cnt).parallel().forEach(action)).get();
     }
 
-    private void processRelations(ArrayList<PageAreaRelation> batch, ArrayList<PageAreaRelation> all, boolean append)
+    /**
+     * The same as above with a pool of its own, for the single runs.
+     */
+    static void forEachIndex(int parallelism, int cnt, IntConsumer action) throws Exception
     {
-        double distMark;
+        ForkJoinPool pool;
 
-        if (batch.size() > 0)
+        if (parallelism <= 1)
         {
-            Collections.sort(batch, new AreaProximityComparator());
-            /* DOC: more boxes can have the same distance */
-            distMark = batch.get(0).getAbsoluteDistance();
-            for (PageAreaRelation r: batch)
+            for (int i = 0; i < cnt; i++)
             {
-                if (r.getAbsoluteDistance() <= distMark)
-                {
-                    r.getA().addNeighbor(r);
-                    if (append) all.add(r);
-                }
-                else
-                {
-                    break;
-                }
+                action.accept(i);
             }
+            return;
+        }
 
-            batch.clear();
+        pool = new ForkJoinPool(parallelism);
+        try
+        {
+            pool.submit(() -> IntStream.range(0, cnt).parallel().forEach(action)).get();
+        }
+        finally
+        {
+            pool.shutdown();
         }
     }
 
+    /**
+     * Releases the threads kept for the parallel runs. The processor may still be
+     * used, the threads are made again when needed.
+     */
+    @Override
+    public void close()
+    {
+        if (this.pool == null) return;
+
+        this.pool.shutdown();
+        this.pool = null;
+    }
+
     public ArrayList<PageArea> getUngrouped()
     {
         return this.ungrouped;
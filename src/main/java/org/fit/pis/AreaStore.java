@@ -0,0 +1,123 @@
+package org.fit.pis;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounds of a list of areas in parallel int arrays, the index of an area is
+ * its position in the list (the same index the area tree and the membership
+ * sets use for the leaves). The loops that read just the geometry of many
+ * areas go through the arrays instead of visiting the PageArea objects.
+ *
+ * Only the bounds are stored. The colors and the edge counts are read from the
+ * PageArea objects once per relation, not in the loops over many areas, and the
+ * groups of the leaves are kept by GroupMembership (by the same index).
+ *
+ * The store is a query-side copy: the PageArea objects keep their bounds and
+ * remain the ones the clustering changes and hands out, the store has to be
+ * refreshed when the areas change. The store of the leaves of a processor
+ * gives each area its index (PageArea.getIndex()), the temporary stores of
+ * other areas leave the indexes alone.
+ */
+class AreaStore
+{
+    private int size;
+    private int[] left;
+    private int[] top;
+    private int[] right;
+    private int[] bottom;
+    private final boolean indexing;
+
+    /**
+     * Makes the store of the leaves of a processor, the areas get their indexes.
+     */
+    public AreaStore(List<PageArea> areas)
+    {
+        this(areas, true);
+    }
+
+    /**
+     * @param indexing whether the areas get their indexes, false for a temporary store
+     */
+    public AreaStore(List<PageArea> areas, boolean indexing)
+    {
+        this.indexing = indexing;
+        this.left = new int[Math.max(16, areas.size())];
+        this.top = new int[this.left.length];
+        this.right = new int[this.left.length];
+        this.bottom = new int[this.left.length];
+
+        this.reset(areas);
+    }
+
+    /**
+     * Stores another list of areas, the arrays are kept when they are large enough.
+     */
+    public void reset(List<PageArea> areas)
+    {
+        this.size = 0;
+        for (PageArea a: areas)
+        {
+            this.add(a);
+        }
+    }
+
+    /**
+     * Adds an area, its index is the number of the areas before.
+     */
+    public void add(PageArea a)
+    {
+        int i = this.size;
+
+        if (i == this.left.length)
+        {
+            this.left = Arrays.copyOf(this.left, 2*i);
+            this.top = Arrays.copyOf(this.top, 2*i);
+            this.right = Arrays.copyOf(this.right, 2*i);
+            this.bottom = Arrays.copyOf(this.bottom, 2*i);
+        }
+
+        this.left[i] = a.getLeft();
+        this.top[i] = a.getTop();
+        this.right[i] = a.getRight();
+        this.bottom[i] = a.getBottom();
+        if (this.indexing) a.setIndex(i);
+        this.size++;
+    }
+
+    public int size()
+    {
+        return this.size;
+    }
+
+    public int getLeft(int i)
+    {
+        return this.left[i];
+    }
+
+    public int getTop(int i)
+    {
+        return this.top[i];
+    }
+
+    public int getRight(int i)
+    {
+        return this.right[i];
+    }
+
+    public int getBottom(int i)
+    {
+        return this.bottom[i];
+    }
+
+    /**
+     * The same as PageArea.contains(): the area i contains the area j, borders included.
+     */
+    public boolean contains(int i, int j)
+    {
+        return this.left[i] <= this.left[j] &&
+               this.right[i] >= this.right[j] &&
+               this.top[i] <= this.top[j] &&
+               this.bottom[i] >= this.bottom[j];
+    }
+}
@@ -0,0 +1,306 @@
+package org.fit.pis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Segmentation of very tall pages split into horizontal bands.
+ *
+ * The leaf areas are found once for the whole page, so that a container reaching
+ * over the edge of a band keeps its children. Each band is then segmented by its
+ * own AreaProcessor2 together with a margin of the neighboring bands, the bands
+ * run in parallel. A group belongs to the band
+ * its top edge lies in, the groups reaching into the margin of the other band are
+ * dropped there. Groups of different bands that overlap each other (they
+ * straddle the seam and each band saw only a part of them) are then resolved by
+ * clustering once more just the areas within their bounds, the new groups must
+ * not overlap the groups kept from the bands.
+ *
+ * When no group crosses a seam, the result is that of the bands themselves.
+ *
+ * DOC: a band sees only the margin of its neighbors, so a group crossing a seam
+ * and reaching further than the margin beyond it is not seen whole by either
+ * band. Such a group is split: the band it starts in keeps the part within its
+ * margin and the rest is grouped (or left ungrouped) on its own.
+ */
+public class BandProcessor
+{
+    private final ArrayList<PageArea> areas;
+    private final int width;
+    private final int height;
+
+    private int bandHeight = 4000;
+    private int margin = 300;
+    private double similarityThreshold = 0.3;
+    private int parallelism = 1;
+
+    private final ArrayList<PageArea> ungrouped;
+
+    public BandProcessor(ArrayList<PageArea> areas, int width, int height)
+    {
+        this.areas = areas;
+        this.width = width;
+        this.height = height;
+        this.ungrouped = new ArrayList<>();
+    }
+
+    public void setBandHeight(int h)
+    {
+        if (h < 1) return;
+
+        this.bandHeight = h;
+    }
+
+    public int getBandHeight()
+    {
+        return this.bandHeight;
+    }
+
+    /**
+     * Sets how far the bands reach into their neighbors.
+     */
+    public void setMargin(int m)
+    {
+        if (m < 0) return;
+
+        this.margin = m;
+    }
+
+    public int getMargin()
+    {
+        return this.margin;
+    }
+
+    public void setThreshold(double t)
+    {
+        if (t < 0 || t > 1) return;
+
+        this.similarityThreshold = t;
+    }
+
+    public double getThreshold()
+    {
+        return this.similarityThreshold;
+    }
+
+    public void setParallelism(int p)
+    {
+        if (p < 1) return;
+
+        this.parallelism = p;
+    }
+
+    public int getParallelism()
+    {
+        return this.parallelism;
+    }
+
+    public ArrayList<PageArea> extractGroups() throws Exception
+    {
+        int bandCnt = Math.max(1, (this.height+this.bandHeight-1)/this.bandHeight);
+        final PagePart[] bands = new PagePart[bandCnt];
+        ArrayList<PageArea> copies = new ArrayList<>();
+        HashMap<PageArea, PageArea> originals = new HashMap<>();
+        ArrayList<PageArea> leaves = new ArrayList<>();
+        final ArrayList<PageArea> owned = new ArrayList<>();
+        ArrayList<Integer> ownerBand = new ArrayList<>();
+        ArrayList<PageArea> ret = new ArrayList<>();
+        HashSet<PageArea> grouped = new HashSet<>();
+        final ArrayList<ArrayList<PageArea>> conflicts;
+        final PagePart[] seams;
+        int[] cluster;
+        Integer[] order;
+        HashMap<Integer, ArrayList<PageArea>> byCluster = new HashMap<>();
+        ArrayList<PageArea> list;
+        PageArea bounds, hull, copy;
+
+        /* The hierarchy is built on copies, the original areas are not changed */
+        for (PageArea a: this.areas)
+        {
+            copy = new PageArea(a);
+            copies.add(copy);
+            originals.put(copy, a);
+        }
+        Collections.sort(copies, new AreaSizeComparator());
+        AreaProcessor2.buildHierarchy(copies, leaves);
+        for (int i = 0; i < leaves.size(); i++)
+        {
+            leaves.set(i, originals.get(leaves.get(i)));
+        }
+
+        /* Each band gets the leaves reaching into it or its margins */
+        for (int i = 0; i < bandCnt; i++)
+        {
+            bands[i] = new PagePart(i*this.bandHeight, (i+1)*this.bandHeight);
+            for (PageArea a: leaves)
+            {
+                if (a.getBottom() < i*this.bandHeight-this.margin) continue;
+                if (a.getTop() >= (i+1)*this.bandHeight+this.margin) continue;
+
+                bands[i].add(a);
+            }
+        }
+        AreaProcessor2.forEachIndex(this.parallelism, bandCnt, i -> bands[i].segment(this.width, this.height, this.similarityThreshold));
+
+        for (int i = 0; i < bandCnt; i++)
+        {
+            for (PageArea group: bands[i].groups)
+            {
+                owned.add(group);
+                ownerBand.add(i);
+            }
+        }
+
+        /* Groups of different bands overlapping each other straddle a seam, these make the conflicts */
+        cluster = new int[owned.size()];
+        for (int i = 0; i < owned.size(); i++)
+        {
+            cluster[i] = i;
+        }
+        /* With the groups sorted by the top edge, only those starting above the bottom
+         * edge of the current one can overlap it */
+        order = new Integer[owned.size()];
+        for (int i = 0; i < owned.size(); i++)
+        {
+            order[i] = i;
+        }
+        Arrays.sort(order, (x, y) -> Integer.compare(owned.get(x).getTop(), owned.get(y).getTop()));
+        for (int i = 0; i < order.length; i++)
+        {
+            for (int j = i+1; j < order.length && owned.get(order[j]).getTop() <= owned.get(order[i]).getBottom(); j++)
+            {
+                if (ownerBand.get(order[i]).equals(ownerBand.get(order[j]))) continue;
+                if (!this.intersects(owned.get(order[i]), owned.get(order[j]))) continue;
+
+                this.join(cluster, order[i], order[j]);
+            }
+        }
+
+        conflicts = new ArrayList<>();
+        for (int i = 0; i < owned.size(); i++)
+        {
+            list = byCluster.get(this.find(cluster, i));
+            if (list == null)
+            {
+                list = new ArrayList<>();
+                byCluster.put(this.find(cluster, i), list);
+                conflicts.add(list);
+            }
+            list.add(owned.get(i));
+        }
+
+        /* The groups without a conflict are final */
+        for (int i = 0; i < conflicts.size(); i++)
+        {
+            if (conflicts.get(i).size() > 1) continue;
+
+            ret.add(conflicts.get(i).get(0));
+            grouped.addAll(conflicts.get(i).get(0).getChildren());
+        }
+
+        /* Re-cluster the areas within the bounds of each conflict */
+        seams = new PagePart[conflicts.size()];
+        for (int i = 0; i < conflicts.size(); i++)
+        {
+            if (conflicts.get(i).size() < 2) continue;
+
+            bounds = this.bounds(conflicts.get(i));
+            seams[i] = new PagePart();
+            hull = null;
+            for (PageArea a: leaves)
+            {
+                if (grouped.contains(a) || !this.intersects(a, bounds)) continue;
+
+                seams[i].add(a);
+                if (hull == null) hull = new PageArea(a);
+                else hull.addChild(a, true);
+            }
+
+            /* The groups of the seam can't reach out of the hull of its areas */
+            for (PageArea group: ret)
+            {
+                if (hull != null && this.intersects(group, hull)) seams[i].addFixedGroup(group);
+            }
+        }
+        AreaProcessor2.forEachIndex(this.parallelism, seams.length, i -> {
+            if (seams[i] != null) seams[i].segment(this.width, this.height, this.similarityThreshold);
+        });
+
+        for (PagePart seam: seams)
+        {
+            if (seam == null) continue;
+
+            ret.addAll(seam.groups);
+            for (PageArea group: seam.groups)
+            {
+                grouped.addAll(group.getChildren());
+            }
+        }
+
+        for (PageArea group: ret)
+        {
+            for (PageArea child: group.getChildren())
+            {
+                child.setParent(group);
+            }
+        }
+
+        this.ungrouped.clear();
+        for (PageArea leaf: leaves)
+        {
+            if (!grouped.contains(leaf))
+            {
+                leaf.setParent(null);
+                this.ungrouped.add(leaf);
+            }
+        }
+
+        return ret;
+    }
+
+    public ArrayList<PageArea> getUngrouped()
+    {
+        return this.ungrouped;
+    }
+
+    private PageArea bounds(List<PageArea> groups)
+    {
+        PageArea ret = new PageArea(groups.get(0));
+
+        for (PageArea group: groups)
+        {
+            ret.addChild(group, true);
+        }
+
+        return ret;
+    }
+
+    private boolean intersects(PageArea a, PageArea b)
+    {
+        return a.getLeft() <= b.getRight() && a.getRight() >= b.getLeft() &&
+               a.getTop() <= b.getBottom() && a.getBottom() >= b.getTop();
+    }
+
+    private void join(int[] cluster, int a, int b)
+    {
+        a = this.find(cluster, a);
+        b = this.find(cluster, b);
+
+        cluster[Math.max(a, b)] = Math.min(a, b);
+    }
+
+    private int find(int[] cluster, int i)
+    {
+        while (cluster[i] != i)
+        {
+            cluster[i] = cluster[cluster[i]];
+            i = cluster[i];
+        }
+
+        return i;
+    }
+}
@@ -0,0 +1,201 @@
+package org.fit.pis;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Trace of the clustering decisions.
+ *
+ * The events are stored in a ring buffer of preallocated primitive arrays,
+ * recording an event builds no strings and allocates nothing. A background
+ * thread writes the recorded events out, one line per event:
+ *
+ * EVENT reason left,top,right,bottom count value
+ *
+ * When the writer can't keep up and the buffer is full, the new events are
+ * dropped and their number is written instead. The trace can be shared by
+ * several threads. The clustering records nothing when it has no trace.
+ */
+public class ClusterTrace
+{
+    public enum Event
+    {
+        /* The relation (bounds of both areas, value: similarity) was taken from the queue */
+        RELATION_PICKED,
+        /* The relation or the group was rejected for the reason given */
+        MERGE_REJECTED,
+        /* A tentative group of two areas was made (count: areas covered) */
+        GROUP_CREATED,
+        /* The tentative group took the areas it overlaps (count: areas covered) */
+        GROUP_GROWN,
+        /* An area was added to the tentative group (count: children of the group) */
+        AREA_ADDED,
+        /* The group was accepted (count: children, value: similarity) */
+        GROUP_COMMITTED,
+        /* A relation of a merged area was removed from the queue (value: similarity) */
+        RELATION_REMOVED
+    }
+
+    public enum Reason
+    {
+        /* The similarity is over the threshold */
+        SIMILARITY,
+        /* The alignment or density test failed */
+        MERGE_TEST,
+        /* The group would overlap another group */
+        GROUP_OVERLAP,
+        /* The group would take an area of another group */
+        OTHER_GROUP,
+        /* Merging the candidates would bring more areas into the group */
+        NEW_AREAS
+    }
+
+    private static final Event[] EVENTS = Event.values();
+    private static final Reason[] REASONS = Reason.values();
+
+    private final Writer out;
+    private final Thread flusher;
+
+    private final int capacity;
+    private final byte[] event;
+    private final byte[] reason;
+    private final int[] bounds;
+    private final int[] count;
+    private final double[] value;
+
+    /* Positions of the next event recorded and the next one written */
+    private long head;
+    private long tail;
+    private long dropped;
+    private boolean closed;
+
+    public ClusterTrace(Writer out)
+    {
+        this(out, 1 << 16);
+    }
+
+    public ClusterTrace(Writer out, int capacity)
+    {
+        this.out = out;
+        this.capacity = capacity;
+        this.event = new byte[capacity];
+        this.reason = new byte[capacity];
+        this.bounds = new int[4*capacity];
+        this.count = new int[capacity];
+        this.value = new double[capacity];
+
+        this.flusher = new Thread(this::flushLoop, "cluster-trace");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public void record(Event e, Reason r, PageArea area, int cnt, double v)
+    {
+        this.record(e, r, area.getLeft(), area.getTop(), area.getRight(), area.getBottom(), cnt, v);
+    }
+
+    public synchronized void record(Event e, Reason r, int left, int top, int right, int bottom, int cnt, double v)
+    {
+        int i;
+
+        if (this.closed) return;
+        if (this.head-this.tail == this.capacity)
+        {
+            this.dropped++;
+            return;
+        }
+
+        i = (int)(this.head%this.capacity);
+        this.event[i] = (byte)e.ordinal();
+        this.reason[i] = (byte)((r == null) ? -1 : r.ordinal());
+        this.bounds[4*i] = left;
+        this.bounds[4*i+1] = top;
+        this.bounds[4*i+2] = right;
+        this.bounds[4*i+3] = bottom;
+        this.count[i] = cnt;
+        this.value[i] = v;
+        this.head++;
+
+        /* The writer is woken up only once the buffer is half full, otherwise it polls */
+        if (this.head-this.tail == this.capacity/2) this.notifyAll();
+    }
+
+    /**
+     * Writes out all the events recorded so far and closes the writer.
+     * The events recorded later are ignored.
+     */
+    public void close() throws IOException
+    {
+        synchronized (this)
+        {
+            this.closed = true;
+            this.notifyAll();
+        }
+
+        try
+        {
+            this.flusher.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        this.out.close();
+    }
+
+    private void flushLoop()
+    {
+        long start, end, lost;
+        boolean last;
+        StringBuilder line = new StringBuilder();
+
+        try
+        {
+            do {
+                synchronized (this)
+                {
+                    if (!this.closed && this.head == this.tail) this.wait(50);
+                    start = this.tail;
+                    end = this.head;
+                    lost = this.dropped;
+                    this.dropped = 0;
+                    last = this.closed;
+                }
+
+                /* The events between tail and head are not overwritten until the tail moves */
+                for (long pos = start; pos < end; pos++)
+                {
+                    this.format((int)(pos%this.capacity), line);
+                    this.out.write(line.toString());
+                }
+                if (lost > 0) this.out.write("DROPPED "+lost+"\n");
+
+                synchronized (this)
+                {
+                    this.tail = end;
+                }
+            } while (!last);
+            this.out.flush();
+        }
+        catch (IOException | InterruptedException e)
+        {
+            synchronized (this)
+            {
+                this.closed = true;
+            }
+        }
+    }
+
+    private void format(int i, StringBuilder line)
+    {
+        line.setLength(0);
+        line.append(EVENTS[this.event[i]]).append(' ');
+        line.append((this.reason[i] < 0) ? "-" : REASONS[this.reason[i]].toString()).append(' ');
+        line.append(this.bounds[4*i]).append(',');
+        line.append(this.bounds[4*i+1]).append(',');
+        line.append(this.bounds[4*i+2]).append(',');
+        line.append(this.bounds[4*i+3]).append(' ');
+        line.append(this.count[i]).append(' ');
+        line.append(this.value[i]).append('\n');
+    }
+}
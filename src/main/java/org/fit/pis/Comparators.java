@@ -111,14 +111,3 @@ class RelationComparator implements Comparator<PageAreaRelation> {
         else return 0;
     }
 }
-
-class AreaProximityComparator implements Comparator<PageAreaRelation> {
-    @Override
-    public int compare(PageAreaRelation a, PageAreaRelation b) {
-        double diff = a.getAbsoluteDistance()-b.getAbsoluteDistance();
-
-        if (diff > 0) return 1;
-        else if (diff < 0) return -1;
-        else return 0;
-    }
-}
\ No newline at end of file
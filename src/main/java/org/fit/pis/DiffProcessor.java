@@ -0,0 +1,351 @@
+package org.fit.pis;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import com.infomatiq.jsi.Rectangle;
+import com.infomatiq.jsi.SpatialIndex;
+import com.infomatiq.jsi.rtree.RTree;
+
+/**
+ * Re-segmentation of a page that was segmented before (e.g. the previous crawl of the same URL).
+ *
+ * The new leaf areas are matched with the previous ones by their geometry, color
+ * and the name of their DOM node. The previous groups whose leaves are all still
+ * there and which are not within the margin of an added or removed area (or of
+ * a group that lost a leaf) are kept as they were. The leaves around the changes are clustered again, each connected
+ * neighborhood of changes on its own, the new groups must not overlap the kept ones.
+ */
+public class DiffProcessor
+{
+    private final List<PageArea> previousLeaves;
+    private final List<PageArea> previousGroups;
+    private final ArrayList<PageArea> areas;
+    private final int width;
+    private final int height;
+
+    private int margin = 50;
+    private double similarityThreshold = 0.3;
+    private int parallelism = 1;
+
+    private final ArrayList<PageArea> ungrouped;
+    private int keptCnt;
+    private int reclusteredCnt;
+
+    /**
+     * @param previousLeaves the leaf areas of the previous run (AreaProcessor2.getAreas())
+     * @param previousGroups the groups of the previous run
+     * @param areas all the areas of the page now
+     */
+    public DiffProcessor(List<PageArea> previousLeaves, List<PageArea> previousGroups, ArrayList<PageArea> areas, int width, int height)
+    {
+        this.previousLeaves = previousLeaves;
+        this.previousGroups = previousGroups;
+        this.areas = areas;
+        this.width = width;
+        this.height = height;
+        this.ungrouped = new ArrayList<>();
+    }
+
+    /**
+     * Sets how far from a change the groups are clustered again.
+     */
+    public void setMargin(int m)
+    {
+        if (m < 0) return;
+
+        this.margin = m;
+    }
+
+    public int getMargin()
+    {
+        return this.margin;
+    }
+
+    public void setThreshold(double t)
+    {
+        if (t < 0 || t > 1) return;
+
+        this.similarityThreshold = t;
+    }
+
+    public double getThreshold()
+    {
+        return this.similarityThreshold;
+    }
+
+    public void setParallelism(int p)
+    {
+        if (p < 1) return;
+
+        this.parallelism = p;
+    }
+
+    public int getParallelism()
+    {
+        return this.parallelism;
+    }
+
+    public ArrayList<PageArea> extractGroups() throws Exception
+    {
+        ArrayList<PageArea> copies = new ArrayList<>();
+        HashMap<PageArea, PageArea> originals = new HashMap<>();
+        ArrayList<PageArea> leaves = new ArrayList<>();
+        HashMap<String, ArrayDeque<PageArea>> previous = new HashMap<>();
+        HashMap<PageArea, PageArea> matched = new HashMap<>();
+        ArrayList<PageArea> changes = new ArrayList<>();
+        ArrayDeque<PageArea> queue;
+        SpatialIndex changeTree;
+        AreaMatch match;
+        AreaCount counter = new AreaCount();
+        boolean[] dirty;
+        ArrayList<Integer> nearGroups = new ArrayList<>();
+        int[] region;
+        int r;
+        HashSet<PageArea> grouped = new HashSet<>();
+        ArrayList<PageArea> near = new ArrayList<>();
+        ArrayList<Integer> nearChange = new ArrayList<>();
+        HashMap<Integer, PagePart> parts = new HashMap<>();
+        final ArrayList<PagePart> partList = new ArrayList<>();
+        HashMap<PagePart, PageArea> hulls = new HashMap<>();
+        ArrayList<PageArea> ret = new ArrayList<>();
+        PageArea group, hull, copy;
+        PagePart part;
+
+        /* The leaves of the new page, the hierarchy is the same as in a full run. It is
+         * built on copies, the original areas are not changed */
+        for (PageArea a: this.areas)
+        {
+            copy = new PageArea(a);
+            copies.add(copy);
+            originals.put(copy, a);
+        }
+        Collections.sort(copies, new AreaSizeComparator());
+        AreaProcessor2.buildHierarchy(copies, leaves);
+        for (int i = 0; i < leaves.size(); i++)
+        {
+            leaves.set(i, originals.get(leaves.get(i)));
+        }
+
+        for (PageArea a: this.previousLeaves)
+        {
+            queue = previous.get(this.getKey(a));
+            if (queue == null)
+            {
+                queue = new ArrayDeque<>();
+                previous.put(this.getKey(a), queue);
+            }
+            queue.add(a);
+        }
+        for (PageArea a: leaves)
+        {
+            queue = previous.get(this.getKey(a));
+            if (queue != null && !queue.isEmpty()) matched.put(queue.poll(), a);
+            else changes.add(a);
+        }
+        for (PageArea a: this.previousLeaves)
+        {
+            if (!matched.containsKey(a)) changes.add(a);
+        }
+
+        /* The changes and the groups that lost a leaf are dirty, so is every group near them */
+        changeTree = new RTree();
+        changeTree.init(null);
+        for (int i = 0; i < changes.size(); i++)
+        {
+            changeTree.add(this.expand(changes.get(i)), i);
+        }
+
+        dirty = new boolean[this.previousGroups.size()];
+        for (int i = 0; i < dirty.length; i++)
+        {
+            for (PageArea child: this.previousGroups.get(i).getChildren())
+            {
+                if (!matched.containsKey(child))
+                {
+                    dirty[i] = true;
+                    changeTree.add(this.previousGroups.get(i).getRectangle(), changes.size());
+                    changes.add(this.previousGroups.get(i));
+                    break;
+                }
+            }
+        }
+        /* Only the groups near the changes themselves, the dirty groups don't spread further */
+        for (int i = 0; i < dirty.length; i++)
+        {
+            if (dirty[i]) continue;
+
+            counter.reset(0);
+            changeTree.intersects(this.expand(this.previousGroups.get(i)), counter);
+            if (counter.isExceeded()) nearGroups.add(i);
+        }
+        for (Integer i: nearGroups)
+        {
+            dirty[i] = true;
+            changeTree.add(this.previousGroups.get(i).getRectangle(), changes.size());
+            changes.add(this.previousGroups.get(i));
+        }
+
+        /* The clean groups are kept with the matching new leaves */
+        this.keptCnt = 0;
+        for (int i = 0; i < dirty.length; i++)
+        {
+            if (dirty[i]) continue;
+
+            group = new PageArea(this.previousGroups.get(i));
+            for (PageArea child: this.previousGroups.get(i).getChildren())
+            {
+                group.addChild(matched.get(child), true);
+                grouped.add(matched.get(child));
+            }
+            ret.add(group);
+            this.keptCnt++;
+        }
+
+        /* The rest of the leaves near the changes make the neighborhoods clustered again,
+         * overlapping changes and the leaves reaching over more of them join the neighborhoods */
+        region = new int[changes.size()];
+        for (int i = 0; i < region.length; i++)
+        {
+            region[i] = i;
+        }
+        for (int i = 0; i < changes.size(); i++)
+        {
+            match = new AreaMatch();
+            changeTree.intersects(this.expand(changes.get(i)), match);
+            for (Integer j: match.getIds())
+            {
+                this.join(region, i, j);
+            }
+        }
+
+        for (PageArea a: leaves)
+        {
+            if (grouped.contains(a)) continue;
+
+            match = new AreaMatch();
+            changeTree.intersects(a.getRectangle(), match);
+            if (match.getIds().isEmpty()) continue;
+
+            for (Integer j: match.getIds())
+            {
+                this.join(region, match.getIds().get(0), j);
+            }
+            near.add(a);
+            nearChange.add(match.getIds().get(0));
+        }
+
+        this.reclusteredCnt = near.size();
+        for (int i = 0; i < near.size(); i++)
+        {
+            r = this.find(region, nearChange.get(i));
+            part = parts.get(r);
+            if (part == null)
+            {
+                part = new PagePart();
+                parts.put(r, part);
+                partList.add(part);
+                hulls.put(part, new PageArea(near.get(i)));
+            }
+            part.add(near.get(i));
+            hulls.get(part).addChild(near.get(i), true);
+        }
+
+        /* The groups of a neighborhood can't reach out of the hull of its leaves, the kept
+         * groups within the hull are fixed there so that the new groups don't overlap them */
+        for (PagePart p: partList)
+        {
+            hull = hulls.get(p);
+            for (int i = 0; i < this.keptCnt; i++)
+            {
+                if (ret.get(i).overlaps(hull)) p.addFixedGroup(ret.get(i));
+            }
+        }
+        AreaProcessor2.forEachIndex(this.parallelism, partList.size(), i -> partList.get(i).segment(this.width, this.height, this.similarityThreshold));
+
+        for (PagePart p: partList)
+        {
+            ret.addAll(p.groups);
+            for (PageArea g: p.groups)
+            {
+                grouped.addAll(g.getChildren());
+            }
+        }
+
+        for (PageArea g: ret)
+        {
+            for (PageArea child: g.getChildren())
+            {
+                child.setParent(g);
+            }
+        }
+
+        this.ungrouped.clear();
+        for (PageArea a: leaves)
+        {
+            if (!grouped.contains(a))
+            {
+                a.setParent(null);
+                this.ungrouped.add(a);
+            }
+        }
+
+        return ret;
+    }
+
+    public ArrayList<PageArea> getUngrouped()
+    {
+        return this.ungrouped;
+    }
+
+    /**
+     * Returns the number of the previous groups kept by the last extractGroups().
+     */
+    public int getKeptGroupCount()
+    {
+        return this.keptCnt;
+    }
+
+    /**
+     * Returns the number of the leaf areas clustered again by the last extractGroups().
+     */
+    public int getReclusteredCount()
+    {
+        return this.reclusteredCnt;
+    }
+
+    private String getKey(PageArea a)
+    {
+        String node = (a.getNode() == null) ? "" : a.getNode().getNodeName();
+
+        return a.getLeft()+","+a.getTop()+","+a.getRight()+","+a.getBottom()+":"+a.getColor().getRGB()+":"+node;
+    }
+
+    private Rectangle expand(PageArea a)
+    {
+        return new Rectangle(a.getLeft()-this.margin, a.getTop()-this.margin, a.getRight()+this.margin, a.getBottom()+this.margin);
+    }
+
+    private void join(int[] region, int a, int b)
+    {
+        a = this.find(region, a);
+        b = this.find(region, b);
+
+        region[Math.max(a, b)] = Math.min(a, b);
+    }
+
+    private int find(int[] region, int i)
+    {
+        while (region[i] != i)
+        {
+            region[i] = region[region[i]];
+            i = region[i];
+        }
+
+        return i;
+    }
+}
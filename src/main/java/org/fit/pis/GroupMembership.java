@@ -0,0 +1,292 @@
+package org.fit.pis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import gnu.trove.TIntArrayList;
+
+/**
+ * Disjoint-set forest keeping track of which group each leaf area belongs to.
+ *
+ * The sets are keyed by the index of the leaf area (PageArea.getIndex(), the
+ * same index that is used in the area R-tree), so the leaves have to be added
+ * in the order of the store of the processor. Union by size and path compression keep the
+ * lookups near constant, the group of a set is stored at its root.
+ *
+ * A tentative group is built between {@link #begin()} and {@link #commit()},
+ * every change made in the meantime is recorded so that {@link #rollback()}
+ * can restore the previous state without walking the children of the groups.
+ */
+class GroupMembership
+{
+    private int count;
+    private PageArea[] leaf;
+    private int[] parent;
+    private int[] size;
+    private PageArea[] group;
+
+    private boolean tentative;
+    private final TIntArrayList logNode;
+    private final TIntArrayList logParent;
+    private final TIntArrayList logSize;
+    private final ArrayList<PageArea> logGroup;
+
+    public GroupMembership(List<PageArea> leaves)
+    {
+        int cnt = leaves.size();
+
+        this.count = 0;
+        this.leaf = new PageArea[cnt];
+        this.parent = new int[cnt];
+        this.size = new int[cnt];
+        this.group = new PageArea[cnt];
+
+        this.tentative = false;
+        this.logNode = new TIntArrayList();
+        this.logParent = new TIntArrayList();
+        this.logSize = new TIntArrayList();
+        this.logGroup = new ArrayList<>();
+
+        this.reset(leaves);
+    }
+
+    private GroupMembership(GroupMembership shared)
+    {
+        this.count = shared.count;
+        this.leaf = shared.leaf;
+        this.parent = shared.parent;
+        this.size = shared.size;
+        this.group = shared.group;
+
+        this.tentative = false;
+        this.logNode = new TIntArrayList();
+        this.logParent = new TIntArrayList();
+        this.logSize = new TIntArrayList();
+        this.logGroup = new ArrayList<>();
+    }
+
+    /**
+     * Starts over with another set of leaf areas, all of them ungrouped.
+     * The arrays are kept when they are large enough.
+     * Must not be called while a fork is in use.
+     */
+    public void reset(List<PageArea> leaves)
+    {
+        Arrays.fill(this.leaf, 0, this.count, null);
+        Arrays.fill(this.group, 0, this.count, null);
+        this.count = 0;
+        this.clearLog();
+        this.tentative = false;
+
+        for (PageArea leaf: leaves)
+        {
+            this.addLeaf(leaf);
+        }
+    }
+
+    /**
+     * Adds a new ungrouped leaf area, its index has to be the number of the leaves before.
+     * Must not be called while a fork is in use.
+     */
+    public void addLeaf(PageArea leaf)
+    {
+        int i = this.count;
+
+        if (i == this.parent.length)
+        {
+            this.parent = Arrays.copyOf(this.parent, Math.max(16, 2*i));
+            this.leaf = Arrays.copyOf(this.leaf, this.parent.length);
+            this.size = Arrays.copyOf(this.size, this.parent.length);
+            this.group = Arrays.copyOf(this.group, this.parent.length);
+        }
+
+        this.leaf[i] = leaf;
+        this.parent[i] = i;
+        this.size[i] = 1;
+        this.group[i] = null;
+        this.count++;
+    }
+
+    /**
+     * Returns a membership sharing the sets with this one, but recording its own
+     * tentative changes. Several forks can be used concurrently as long as each of
+     * them works with a different set of leaves.
+     */
+    public GroupMembership fork()
+    {
+        return new GroupMembership(this);
+    }
+
+    /**
+     * Returns the index of a leaf area or -1 if the area is not a leaf (e.g. it is a group).
+     */
+    public int indexOf(PageArea area)
+    {
+        int i = area.getIndex();
+
+        /* The index may come from the store of another processor */
+        if (i < 0 || i >= this.count || this.leaf[i] != area) return -1;
+        else return i;
+    }
+
+    /**
+     * Returns the group the area belongs to or null if it is not grouped.
+     * Groups themselves never belong to another group.
+     */
+    public PageArea getGroup(PageArea area)
+    {
+        int i = this.indexOf(area);
+
+        if (i < 0) return null;
+        else return this.getGroup(i);
+    }
+
+    public PageArea getGroup(int leaf)
+    {
+        return this.group[this.find(leaf)];
+    }
+
+    /**
+     * Returns the number of the leaves in the set of the leaf.
+     */
+    int setSize(int leaf)
+    {
+        return this.size[this.find(leaf)];
+    }
+
+    /**
+     * Starts recording changes of a tentative group.
+     */
+    public void begin()
+    {
+        this.tentative = true;
+    }
+
+    /**
+     * Accepts all the changes made since {@link #begin()}.
+     */
+    public void commit()
+    {
+        this.clearLog();
+        this.tentative = false;
+    }
+
+    /**
+     * Reverts all the changes made since {@link #begin()}.
+     */
+    public void rollback()
+    {
+        int node;
+
+        for (int i = this.logNode.size()-1; i >= 0; i--)
+        {
+            node = this.logNode.get(i);
+            this.parent[node] = this.logParent.get(i);
+            this.size[node] = this.logSize.get(i);
+            this.group[node] = this.logGroup.get(i);
+        }
+        this.clearLog();
+        this.tentative = false;
+    }
+
+    /**
+     * Makes a new group out of two ungrouped areas (leaves or former groups).
+     */
+    public void merge(PageArea newGroup, PageArea a, PageArea b)
+    {
+        int root;
+
+        root = this.union(this.representative(a), this.representative(b));
+        this.setGroup(root, newGroup);
+    }
+
+    /**
+     * Adds a leaf area to an existing group.
+     */
+    public void add(PageArea group, PageArea area)
+    {
+        int root;
+
+        root = this.union(this.representative(group), this.indexOf(area));
+        this.setGroup(root, group);
+    }
+
+    private int representative(PageArea area)
+    {
+        if (area.getChildren().isEmpty()) return this.indexOf(area);
+        /* All the children of a group are leaves */
+        else return this.indexOf(area.getChildren().get(0));
+    }
+
+    private int find(int i)
+    {
+        int root = i;
+        int next;
+
+        while (this.parent[root] != root)
+        {
+            root = this.parent[root];
+        }
+
+        while (this.parent[i] != root)
+        {
+            next = this.parent[i];
+            this.save(i);
+            this.parent[i] = root;
+            i = next;
+        }
+
+        return root;
+    }
+
+    private int union(int a, int b)
+    {
+        int tmp;
+
+        a = this.find(a);
+        b = this.find(b);
+        if (a == b) return a;
+
+        if (this.size[a] < this.size[b])
+        {
+            tmp = a;
+            a = b;
+            b = tmp;
+        }
+
+        this.save(a);
+        this.save(b);
+        this.parent[b] = a;
+        this.size[a] += this.size[b];
+        this.group[b] = null;
+
+        return a;
+    }
+
+    private void setGroup(int root, PageArea g)
+    {
+        if (this.group[root] == g) return;
+
+        this.save(root);
+        this.group[root] = g;
+    }
+
+    private void save(int node)
+    {
+        if (!this.tentative) return;
+
+        this.logNode.add(node);
+        this.logParent.add(this.parent[node]);
+        this.logSize.add(this.size[node]);
+        this.logGroup.add(this.group[node]);
+    }
+
+    private void clearLog()
+    {
+        this.logNode.resetQuick();
+        this.logParent.resetQuick();
+        this.logSize.resetQuick();
+        this.logGroup.clear();
+    }
+}
@@ -10,20 +10,22 @@ import org.fit.pis.cssbox.PageLoader;
 import org.fit.pis.in.FileLoader;
 import org.fit.pis.out.ImageOutput;
 import org.fit.pis.out.TextOutput;
+import org.fit.pis.out.TreeOutput;
 import org.xml.sax.SAXException;
 
 public class Main
 {
     public static final String home = "./";
     public static double threshold = -1;
+    /* Write the results for all the thresholds 0.1 .. 1.0 from a single run */
+    public static boolean allThresholds = false;
 
 
     public static void process(Rectangle view, ArrayList<PageArea> areas, String imageString, Boolean debug) throws Exception {
         ArrayList<PageArea> groups;
         ArrayList<PageArea> ungrouped;
         AreaProcessor2 h;
-        ImageOutput out;
-        TextOutput textOut;
+        TreeOutput treeOut;
 
 //         textOut = new TextOutput(areas);
 //         textOut.save(home+imageString+"-boxes.txt");
@@ -38,11 +40,46 @@ public class Main
         /* For the sake of the right name */
         threshold = h.getThreshold();
 
+        save(view, groups, ungrouped, imageString+"-boxes-"+threshold);
+
+        treeOut = new TreeOutput(h.getMergeTree());
+        treeOut.save(home+imageString+"-tree-"+threshold+".txt");
+    }
+
+    public static void processAll(Rectangle view, ArrayList<PageArea> areas, String imageString, Boolean debug) throws Exception {
+        AreaProcessor2 h;
+        MergeTree tree;
+        TreeOutput treeOut;
+        double t;
+
+        h = new AreaProcessor2(areas, (int)view.getWidth(), (int)view.getHeight());
+        /* All the merges have to be recorded, the lower thresholds are cut from the merge tree */
+        h.setThreshold(1.0);
+        if (debug != null) h.setDebug(debug);
+
+        h.extractGroups(h.getAreas());
+        tree = h.getMergeTree();
+
+        for (int i = 1; i <= 10; i++)
+        {
+            t = i/10.0;
+            /* The cuts get their own names, they are not the same as the runs with the threshold */
+            save(view, tree.getGroups(t), tree.getUngrouped(t), imageString+"-cut-"+t);
+        }
+
+        treeOut = new TreeOutput(tree);
+        treeOut.save(home+imageString+"-tree-"+h.getThreshold()+".txt");
+    }
+
+    private static void save(Rectangle view, ArrayList<PageArea> groups, ArrayList<PageArea> ungrouped, String name) {
+        ImageOutput out;
+        TextOutput textOut;
+
         out = new ImageOutput(view, groups, ungrouped);
-        out.save(home+imageString+"-boxes-"+threshold+".png");
+        out.save(home+name+".png");
 
         textOut = new TextOutput(groups);
-        textOut.save(home+imageString+"-boxes-"+threshold+".txt");
+        textOut.save(home+name+".txt");
     }
 
 
@@ -61,12 +98,16 @@ public class Main
 
         if (args.length < 1)
         {
-            System.out.println("./run.sh <address>[ <threshold>[ debug]]");
+            System.out.println("./run.sh <address>[ <threshold>|all[ debug]]");
             return;
         } else if (args.length == 1) {
             threshold = 0.3;
         } else {
-            threshold = new Double(args[1]);
+            if (args[1].equals("all")) {
+                allThresholds = true;
+            } else {
+                threshold = new Double(args[1]);
+            }
             if (args.length > 2) {
                 debug = new Boolean(args[2]);
             }
@@ -93,7 +134,8 @@ public class Main
         }
 
         if (imageString.length() > 128) imageString = imageString.substring(0, 128);
-        process(r, areas, imageString, debug);
+        if (allThresholds) processAll(r, areas, imageString, debug);
+        else process(r, areas, imageString, debug);
 
         System.exit(0); /* Can't just return, as the AWT Thread was created */
     }
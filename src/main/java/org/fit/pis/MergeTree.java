@@ -0,0 +1,322 @@
+package org.fit.pis;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+import gnu.trove.TIntArrayList;
+
+/**
+ * History of the merges made by the clustering (a dendrogram).
+ *
+ * Nodes 0..n-1 are the leaf areas, every accepted group adds a node whose
+ * children are the groups and leaves it was made of. Each node keeps the
+ * similarity of the relation that created it and its height, which is the
+ * highest similarity on the way down to the leaves. Cutting the tree at a
+ * threshold gives the groups of all the nodes with height not exceeding the
+ * threshold, in O(n).
+ *
+ * Leaves appended to the list the tree was created with are taken by
+ * {@link #extendLeaves()}; the ids of the groups move by the number of the new leaves.
+ * Internally the groups are referred to by their order (encoded as -1-order in
+ * the children), so nothing has to be renumbered.
+ *
+ * DOC: the cut approximates a separate clustering run with the given threshold:
+ * such a run discards the relations over the threshold, so the relations derived
+ * from them later never appear, the cut keeps the groups that only depend on
+ * merges under the threshold.
+ */
+public class MergeTree
+{
+    private final List<PageArea> leaves;
+
+    private final ArrayList<int[]> children;
+    private final TIntArrayList bounds;
+    private final ArrayList<Color> colors;
+    private final ArrayList<Double> similarity;
+    private final ArrayList<Double> height;
+    /* Order of the parent group, -1 for the roots */
+    private final TIntArrayList leafParent;
+    private final TIntArrayList groupParent;
+
+    public MergeTree(List<PageArea> leaves)
+    {
+        this.leaves = leaves;
+        this.children = new ArrayList<>();
+        this.bounds = new TIntArrayList();
+        this.colors = new ArrayList<>();
+        this.similarity = new ArrayList<>();
+        this.height = new ArrayList<>();
+        this.leafParent = new TIntArrayList();
+        this.groupParent = new TIntArrayList();
+
+        this.extendLeaves();
+    }
+
+    /**
+     * Takes the leaves appended to the list since the tree was created.
+     */
+    public void extendLeaves()
+    {
+        while (this.leafParent.size() < this.leaves.size())
+        {
+            this.leafParent.add(-1);
+        }
+    }
+
+    /**
+     * Drops all the groups and takes the leaves the list contains now
+     * (e.g. when the list was refilled with the leaves of another page).
+     */
+    public void clear()
+    {
+        this.children.clear();
+        this.bounds.resetQuick();
+        this.colors.clear();
+        this.similarity.clear();
+        this.height.clear();
+        this.leafParent.resetQuick();
+        this.groupParent.resetQuick();
+
+        this.extendLeaves();
+    }
+
+    /**
+     * Records a new group made of the given nodes.
+     * @return the id of the new node
+     */
+    public int add(PageArea group, int[] nodes, double sim)
+    {
+        return this.add(nodes, sim, group.getLeft(), group.getTop(), group.getRight(), group.getBottom(), group.getColor());
+    }
+
+    /**
+     * Appends all the groups of another tree built over the same leaves.
+     */
+    public void addAll(MergeTree other)
+    {
+        int offset = this.getNodeCount()-other.getLeafCount();
+        int[] nodes;
+
+        for (int node = other.getLeafCount(); node < other.getNodeCount(); node++)
+        {
+            nodes = other.getChildren(node);
+            for (int i = 0; i < nodes.length; i++)
+            {
+                if (!other.isLeaf(nodes[i])) nodes[i] += offset;
+            }
+            this.add(nodes, other.getSimilarity(node),
+                     other.getLeft(node), other.getTop(node), other.getRight(node), other.getBottom(node), other.getColor(node));
+        }
+    }
+
+    private int add(int[] nodes, double sim, int left, int top, int right, int bottom, Color color)
+    {
+        int order = this.children.size();
+        int[] encoded = new int[nodes.length];
+        double h = sim;
+
+        for (int i = 0; i < nodes.length; i++)
+        {
+            if (this.isLeaf(nodes[i]))
+            {
+                this.leafParent.set(nodes[i], order);
+                encoded[i] = nodes[i];
+            }
+            else
+            {
+                this.groupParent.set(nodes[i]-this.leaves.size(), order);
+                encoded[i] = -1-(nodes[i]-this.leaves.size());
+                h = Math.max(h, this.getHeight(nodes[i]));
+            }
+        }
+
+        this.children.add(encoded);
+        this.bounds.add(left);
+        this.bounds.add(top);
+        this.bounds.add(right);
+        this.bounds.add(bottom);
+        this.colors.add(color);
+        this.similarity.add(sim);
+        this.height.add(h);
+        this.groupParent.add(-1);
+
+        return this.leaves.size()+order;
+    }
+
+    public int getLeafCount()
+    {
+        return this.leaves.size();
+    }
+
+    public int getNodeCount()
+    {
+        return this.leaves.size()+this.children.size();
+    }
+
+    public boolean isLeaf(int node)
+    {
+        return node < this.leaves.size();
+    }
+
+    public PageArea getLeaf(int node)
+    {
+        return this.leaves.get(node);
+    }
+
+    public int getParent(int node)
+    {
+        int order;
+
+        if (this.isLeaf(node)) order = this.leafParent.get(node);
+        else order = this.groupParent.get(node-this.leaves.size());
+
+        if (order < 0) return -1;
+        else return this.leaves.size()+order;
+    }
+
+    public int[] getChildren(int node)
+    {
+        int[] ret;
+
+        if (this.isLeaf(node)) return new int[0];
+
+        ret = this.children.get(node-this.leaves.size()).clone();
+        for (int i = 0; i < ret.length; i++)
+        {
+            if (ret[i] < 0) ret[i] = this.leaves.size()-1-ret[i];
+        }
+
+        return ret;
+    }
+
+    public double getSimilarity(int node)
+    {
+        if (this.isLeaf(node)) return 0.0;
+        else return this.similarity.get(node-this.leaves.size());
+    }
+
+    public double getHeight(int node)
+    {
+        if (this.isLeaf(node)) return 0.0;
+        else return this.height.get(node-this.leaves.size());
+    }
+
+    public int getLeft(int node)
+    {
+        if (this.isLeaf(node)) return this.leaves.get(node).getLeft();
+        else return this.bounds.get(4*(node-this.leaves.size()));
+    }
+
+    public int getTop(int node)
+    {
+        if (this.isLeaf(node)) return this.leaves.get(node).getTop();
+        else return this.bounds.get(4*(node-this.leaves.size())+1);
+    }
+
+    public int getRight(int node)
+    {
+        if (this.isLeaf(node)) return this.leaves.get(node).getRight();
+        else return this.bounds.get(4*(node-this.leaves.size())+2);
+    }
+
+    public int getBottom(int node)
+    {
+        if (this.isLeaf(node)) return this.leaves.get(node).getBottom();
+        else return this.bounds.get(4*(node-this.leaves.size())+3);
+    }
+
+    public Color getColor(int node)
+    {
+        if (this.isLeaf(node)) return this.leaves.get(node).getColor();
+        else return this.colors.get(node-this.leaves.size());
+    }
+
+    /**
+     * Returns the groups obtained by cutting the tree at the threshold.
+     */
+    public ArrayList<PageArea> getGroups(double threshold)
+    {
+        ArrayList<PageArea> ret = new ArrayList<>();
+        TIntArrayList stack = new TIntArrayList();
+        int node;
+
+        this.pushRoots(stack);
+        while (!stack.isEmpty())
+        {
+            node = stack.remove(stack.size()-1);
+            if (this.isLeaf(node)) continue;
+
+            if (this.getHeight(node) <= threshold)
+            {
+                ret.add(this.createGroup(node));
+            }
+            else
+            {
+                for (int child: this.getChildren(node))
+                {
+                    stack.add(child);
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Returns the leaf areas that don't belong to any group at the threshold.
+     */
+    public ArrayList<PageArea> getUngrouped(double threshold)
+    {
+        ArrayList<PageArea> ret = new ArrayList<>();
+        int node;
+
+        for (int i = 0; i < this.leaves.size(); i++)
+        {
+            node = this.getParent(i);
+            if (node < 0 || this.getHeight(node) > threshold)
+            {
+                ret.add(this.leaves.get(i));
+            }
+        }
+
+        return ret;
+    }
+
+    private void pushRoots(TIntArrayList stack)
+    {
+        for (int i = this.getNodeCount()-1; i >= 0; i--)
+        {
+            if (this.getParent(i) < 0) stack.add(i);
+        }
+    }
+
+    private PageArea createGroup(int node)
+    {
+        PageArea group;
+        TIntArrayList stack = new TIntArrayList();
+
+        group = new PageArea(this.getColor(node),
+                             this.getLeft(node), this.getTop(node), this.getRight(node), this.getBottom(node));
+
+        stack.add(node);
+        while (!stack.isEmpty())
+        {
+            node = stack.remove(stack.size()-1);
+            if (this.isLeaf(node))
+            {
+                /* Just a view, the parent of the leaf stays untouched */
+                group.addChild(this.leaves.get(node), true);
+            }
+            else
+            {
+                for (int child: this.getChildren(node))
+                {
+                    stack.add(child);
+                }
+            }
+        }
+
+        return group;
+    }
+}
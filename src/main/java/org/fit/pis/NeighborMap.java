@@ -0,0 +1,205 @@
+package org.fit.pis;
+
+import java.util.Arrays;
+
+/**
+ * Neighbors of an area: the relations to the neighboring areas. The leaves are
+ * hashed by their index (PageArea.getIndex()), the other areas by their
+ * identity; the areas are compared by reference.
+ *
+ * An open-addressing table with linear probing over plain arrays, there are
+ * no boxed keys or entry objects. The table is made with the first neighbor.
+ * The neighbors are visited by their slots, which allocates nothing:
+ *
+ * for (int i = map.first(); i >= 0; i = map.next(i))
+ * {
+ *     area = map.getArea(i);
+ *     rel = map.getRelation(i);
+ * }
+ *
+ * The map must not be changed while its slots are visited.
+ */
+public class NeighborMap
+{
+    private static final int MIN_CAPACITY = 8;
+
+    /* The hash of each area at the time it was put */
+    private int[] keys;
+    private PageArea[] areas;
+    private PageAreaRelation[] relations;
+    private int size;
+
+    public int size()
+    {
+        return this.size;
+    }
+
+    public boolean isEmpty()
+    {
+        return this.size == 0;
+    }
+
+    public boolean containsKey(PageArea a)
+    {
+        return this.find(a) >= 0;
+    }
+
+    public PageAreaRelation get(PageArea a)
+    {
+        int i = this.find(a);
+
+        return (i < 0) ? null : this.relations[i];
+    }
+
+    public void put(PageArea a, PageAreaRelation rel)
+    {
+        int i;
+
+        if (this.relations == null)
+        {
+            this.allocate(MIN_CAPACITY);
+        }
+        else if (2*(this.size+1) > this.relations.length)
+        {
+            this.grow();
+        }
+
+        i = this.slot(this.hash(a));
+        while (this.areas[i] != null && this.areas[i] != a)
+        {
+            i = (i+1)&(this.relations.length-1);
+        }
+
+        if (this.areas[i] == null) this.size++;
+        this.keys[i] = this.hash(a);
+        this.areas[i] = a;
+        this.relations[i] = rel;
+    }
+
+    public void remove(PageArea a)
+    {
+        int mask, i, j, home;
+
+        i = this.find(a);
+        if (i < 0) return;
+
+        /* DOC: the entries after the removed one are shifted back,
+         * so that the probing never needs deleted markers */
+        mask = this.relations.length-1;
+        j = i;
+        while (true)
+        {
+            j = (j+1)&mask;
+            if (this.areas[j] == null) break;
+
+            home = this.slot(this.keys[j]);
+            /* The entry at j can fill the hole at i only when its home slot is not in (i, j] */
+            if ((i <= j) ? (i < home && home <= j) : (i < home || home <= j)) continue;
+
+            this.keys[i] = this.keys[j];
+            this.areas[i] = this.areas[j];
+            this.relations[i] = this.relations[j];
+            i = j;
+        }
+
+        this.areas[i] = null;
+        this.relations[i] = null;
+        this.size--;
+    }
+
+    /**
+     * Drops all the neighbors, the table is kept.
+     */
+    public void clear()
+    {
+        if (this.areas == null) return;
+
+        Arrays.fill(this.areas, null);
+        Arrays.fill(this.relations, null);
+        this.size = 0;
+    }
+
+    /**
+     * Returns the first slot with a neighbor, -1 when there is none.
+     */
+    public int first()
+    {
+        return this.next(-1);
+    }
+
+    /**
+     * Returns the slot with a neighbor after the slot i, -1 when there is none.
+     */
+    public int next(int i)
+    {
+        if (this.areas == null) return -1;
+
+        for (i++; i < this.areas.length; i++)
+        {
+            if (this.areas[i] != null) return i;
+        }
+
+        return -1;
+    }
+
+    public PageArea getArea(int slot)
+    {
+        return this.areas[slot];
+    }
+
+    public PageAreaRelation getRelation(int slot)
+    {
+        return this.relations[slot];
+    }
+
+    private int find(PageArea a)
+    {
+        int i;
+
+        if (this.areas == null) return -1;
+
+        i = this.slot(this.hash(a));
+        while (this.areas[i] != null)
+        {
+            if (this.areas[i] == a) return i;
+            i = (i+1)&(this.relations.length-1);
+        }
+
+        return -1;
+    }
+
+    private int hash(PageArea a)
+    {
+        int index = a.getIndex();
+
+        return (index >= 0) ? index : System.identityHashCode(a);
+    }
+
+    private int slot(int key)
+    {
+        /* The indexes are consecutive numbers, they are spread over the table */
+        int h = key*0x9E3779B9;
+
+        return (h^(h >>> 16))&(this.relations.length-1);
+    }
+
+    private void allocate(int capacity)
+    {
+        this.keys = new int[capacity];
+        this.areas = new PageArea[capacity];
+        this.relations = new PageAreaRelation[capacity];
+        this.size = 0;
+    }
+
+    private void grow()
+    {
+        PageArea[] oldAreas = this.areas;
+        PageAreaRelation[] oldRelations = this.relations;
+
+        this.allocate(2*oldAreas.length);
+        for (int i = 0; i < oldAreas.length; i++)
+        {
+            if (oldAreas[i] != null) this.put(oldAreas[i], oldRelations[i]);
+        }
+    }
+}
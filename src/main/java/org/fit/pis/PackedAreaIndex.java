@@ -0,0 +1,209 @@
+package org.fit.pis;
+
+import java.util.Arrays;
+
+import com.infomatiq.jsi.Rectangle;
+
+import gnu.trove.TIntProcedure;
+
+/**
+ * Read-only R-tree over a fixed set of areas, packed in one pass.
+ *
+ * The areas are ordered by the Sort-Tile-Recursive method (sorted by the
+ * horizontal center into vertical slices, each slice sorted by the vertical
+ * center) and grouped by NODE_SIZE into leaves, the upper levels are made
+ * the same way from consecutive nodes of the level below. All the nodes are
+ * stored in flat int arrays, a node refers to its first child only.
+ *
+ * The intersection test is the same as the one of the jsi RTree (borders
+ * included) and the ids are the indexes of the areas in the store the index was built from.
+ */
+class PackedAreaIndex
+{
+    private static final int NODE_SIZE = 16;
+
+    private int size;
+    private int[] minX;
+    private int[] minY;
+    private int[] maxX;
+    private int[] maxY;
+    /* Item id for the leaf entries, position of the first child for the nodes */
+    private int[] index;
+    /* End of each level, level 0 contains the items */
+    private int[] levelBounds;
+    /* Used parts of the arrays, the root is the last node */
+    private int nodeCnt;
+    private int levelCnt;
+
+    public PackedAreaIndex(AreaStore areas)
+    {
+        this.reset(areas);
+    }
+
+    /**
+     * Packs another set of areas, the arrays are kept when they are large enough.
+     */
+    public void reset(AreaStore areas)
+    {
+        int n = areas.size();
+        int total, levels, cnt;
+        int pos, start, end, levelStart;
+        Integer[] order;
+
+        this.size = n;
+
+        /* Count the nodes on all the levels */
+        total = n;
+        levels = 1;
+        cnt = n;
+        while (cnt > 1)
+        {
+            cnt = (cnt+NODE_SIZE-1)/NODE_SIZE;
+            total += cnt;
+            levels++;
+        }
+
+        if (this.index == null || this.index.length < total)
+        {
+            this.minX = new int[total];
+            this.minY = new int[total];
+            this.maxX = new int[total];
+            this.maxY = new int[total];
+            this.index = new int[total];
+        }
+        if (this.levelBounds == null || this.levelBounds.length < levels)
+        {
+            this.levelBounds = new int[levels];
+        }
+        this.nodeCnt = total;
+        this.levelCnt = levels;
+
+        order = this.sortTileRecursive(areas);
+        for (pos = 0; pos < n; pos++)
+        {
+            this.minX[pos] = areas.getLeft(order[pos]);
+            this.minY[pos] = areas.getTop(order[pos]);
+            this.maxX[pos] = areas.getRight(order[pos]);
+            this.maxY[pos] = areas.getBottom(order[pos]);
+            this.index[pos] = order[pos];
+        }
+        this.levelBounds[0] = n;
+
+        levelStart = 0;
+        for (int level = 1; level < levels; level++)
+        {
+            end = this.levelBounds[level-1];
+            for (start = levelStart; start < end; start += NODE_SIZE)
+            {
+                this.index[pos] = start;
+                this.minX[pos] = Integer.MAX_VALUE;
+                this.minY[pos] = Integer.MAX_VALUE;
+                this.maxX[pos] = Integer.MIN_VALUE;
+                this.maxY[pos] = Integer.MIN_VALUE;
+                for (int c = start; c < Math.min(start+NODE_SIZE, end); c++)
+                {
+                    this.minX[pos] = Math.min(this.minX[pos], this.minX[c]);
+                    this.minY[pos] = Math.min(this.minY[pos], this.minY[c]);
+                    this.maxX[pos] = Math.max(this.maxX[pos], this.maxX[c]);
+                    this.maxY[pos] = Math.max(this.maxY[pos], this.maxY[c]);
+                }
+                pos++;
+            }
+            levelStart = end;
+            this.levelBounds[level] = pos;
+        }
+    }
+
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Calls the procedure for the id of each area intersecting the rectangle,
+     * stops when the procedure returns false.
+     */
+    public void intersects(Rectangle r, TIntProcedure ip)
+    {
+        int[] stack;
+        int[] stackLevel;
+        int top;
+        int node, level, end;
+
+        if (this.size == 0) return;
+
+        node = this.nodeCnt-1;
+        level = this.levelCnt-1;
+        if (!this.intersects(node, r)) return;
+        if (level == 0)
+        {
+            ip.execute(this.index[node]);
+            return;
+        }
+
+        stack = new int[this.levelCnt*NODE_SIZE];
+        stackLevel = new int[stack.length];
+        top = 0;
+        stack[top] = node;
+        stackLevel[top] = level;
+        top++;
+        while (top > 0)
+        {
+            top--;
+            node = stack[top];
+            level = stackLevel[top]-1;
+
+            end = Math.min(this.index[node]+NODE_SIZE, this.levelBounds[level]);
+            for (int c = this.index[node]; c < end; c++)
+            {
+                if (!this.intersects(c, r)) continue;
+
+                if (level == 0)
+                {
+                    if (!ip.execute(this.index[c])) return;
+                }
+                else
+                {
+                    stack[top] = c;
+                    stackLevel[top] = level;
+                    top++;
+                }
+            }
+        }
+    }
+
+    private boolean intersects(int node, Rectangle r)
+    {
+        return r.minX <= this.maxX[node] && r.maxX >= this.minX[node] &&
+               r.minY <= this.maxY[node] && r.maxY >= this.minY[node];
+    }
+
+    private Integer[] sortTileRecursive(AreaStore areas)
+    {
+        int n = areas.size();
+        int leaves, slices, sliceSize;
+        Integer[] order = new Integer[n];
+        final long[] centerX = new long[n];
+        final long[] centerY = new long[n];
+
+        for (int i = 0; i < n; i++)
+        {
+            order[i] = i;
+            /* Doubled centers, no need to divide */
+            centerX[i] = (long)areas.getLeft(i)+areas.getRight(i);
+            centerY[i] = (long)areas.getTop(i)+areas.getBottom(i);
+        }
+
+        leaves = (n+NODE_SIZE-1)/NODE_SIZE;
+        slices = (int)Math.ceil(Math.sqrt(leaves));
+        sliceSize = NODE_SIZE*(int)Math.ceil((double)leaves/Math.max(slices, 1));
+
+        Arrays.sort(order, (a, b) -> Long.compare(centerX[a], centerX[b]));
+        for (int start = 0; start < n; start += sliceSize)
+        {
+            Arrays.sort(order, start, Math.min(start+sliceSize, n), (a, b) -> Long.compare(centerY[a], centerY[b]));
+        }
+
+        return order;
+    }
+}
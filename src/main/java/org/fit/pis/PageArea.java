@@ -2,9 +2,8 @@ package org.fit.pis;
 
 import java.awt.Color;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 import org.w3c.dom.Node;
 
@@ -12,7 +11,10 @@ import com.infomatiq.jsi.Rectangle;
 
 public class PageArea
 {
-    private Integer id;
+    /* Index of the leaf in the AreaStore of its processor, -1 for the other areas */
+    private int index;
+    /* Handle of the group in the processor that made it, -1 for the other areas */
+    private int id;
 
     private Color color;
     private int left;
@@ -21,8 +23,9 @@ public class PageArea
     private int bottom;
 
     private PageArea parent;
-    private final ArrayList<PageArea> children;
-    private final HashMap<PageArea, PageAreaRelation> neighbors;
+    /* Made with the first child, most areas are leaves */
+    private ArrayList<PageArea> children;
+    private final NeighborMap neighbors;
     /* This is a mean of neighbor distances */
     private int meanNeighborDistance;
     private int maxNeighborDistance;
@@ -57,14 +60,15 @@ public class PageArea
         this.top = t;
         this.right = r;
         this.bottom = b;
-        this.children = new ArrayList<>();
-        this.neighbors = new HashMap<>();
+        this.children = null;
+        this.index = -1;
+        this.neighbors = new NeighborMap();
         this.maxNeighborDistance = 0;
         this.meanNeighborDistance = 0;
         this.rectangle = null;
         this.vEdgeCount = 0;
         this.hEdgeCount = 0;
-        this.id = null;
+        this.id = -1;
         this.node = null;
     }
 
@@ -75,41 +79,55 @@ public class PageArea
 
     public PageArea(PageArea a, boolean inheritChildren)
     {
-        this.color = new Color(a.color.getRGB());
+        /* Color is immutable, it can be shared */
+        this.color = a.color;
         this.left = a.left;
         this.right = a.right;
         this.top = a.top;
         this.bottom = a.bottom;
         this.vEdgeCount = a.vEdgeCount;
         this.hEdgeCount = a.hEdgeCount;
-        this.children = new ArrayList<>();
-        this.neighbors = new HashMap<>();
+        this.children = null;
+        this.index = -1;
+        this.neighbors = new NeighborMap();
         this.maxNeighborDistance = 0;
         this.meanNeighborDistance = 0;
-        this.id = null;
+        this.id = -1;
         this.node = null;
 
-        if (inheritChildren)
+        if (inheritChildren && a.children != null)
         {
             /* We don't want to change the relationships, just transfer the references */
-            this.children.addAll(a.getChildren());
+            this.children = new ArrayList<>(a.children);
         }
     }
 
-    public Integer getId()
+    /**
+     * Returns the index of the leaf in the store of its processor (see AreaStore),
+     * -1 for the groups and the areas not stored.
+     */
+    public int getIndex()
     {
-        return this.id;
+        return this.index;
     }
 
-    public void setId(int top, int left)
+    void setIndex(int index)
     {
-        // TODO: this can cause problems if the page is wider than 9999px
-        this.id = new Integer(top*10000+left);
+        this.index = index;
     }
 
-    public void calculateId()
+    /**
+     * Returns the handle of the group in the processor that made it (dense, from 0),
+     * -1 for the areas that are not groups.
+     */
+    public int getId()
     {
-        this.setId(this.top, this.left);
+        return this.id;
+    }
+
+    public void setId(int id)
+    {
+        this.id = id;
     }
 
     public boolean contains(PageArea obj)
@@ -209,6 +227,7 @@ public class PageArea
 
     public void addChild(PageArea child, boolean tryout)
     {
+        if (this.children == null) this.children = new ArrayList<>();
         this.children.add(child);
         if (!tryout)
         {
@@ -224,47 +243,20 @@ public class PageArea
     public void delChild(PageArea child)
     {
         // TODO: adjust borders, pattern and reset the rectangle
-        this.children.remove(child);
+        if (this.children != null) this.children.remove(child);
     }
 
     public List<PageArea> getChildren()
     {
-        return this.children;
-    }
+        if (this.children == null) return Collections.emptyList();
 
-
-    public void reclaimChildren()
-    {
-        if (this.children.size() == 0)
-        {
-            this.setParent(null);
-        }
-        else
-        {
-            for (PageArea child: this.children)
-            {
-                child.setParent(this);
-            }
-        }
+        return this.children;
     }
 
-    public void giveUpChildren()
-    {
-        for (PageArea child: this.getChildren())
-        {
-            /* We need to return all areas that have been added to
-             * the tmpGroup (not those inherited from the original group)
-             * to the pool */
-            if (child.getParent() == this)
-            {
-                child.setParent(null);
-            }
-        }
-    }
 
     public int getAreaCount()
     {
-        if (this.children.size() > 0)
+        if (this.children != null && this.children.size() > 0)
         {
             return this.children.size();
         }
@@ -299,7 +291,7 @@ public class PageArea
         return this.parent;
     }
 
-    public HashMap<PageArea, PageAreaRelation> getNeighbors()
+    public NeighborMap getNeighbors()
     {
         return this.neighbors;
     }
@@ -337,19 +329,20 @@ public class PageArea
 
     public void addNeighbor(PageAreaRelation rel)
     {
-        PageArea a;
-        int distance;
+        if (rel.getA() == this) this.addNeighborIfAbsent(rel.getB(), rel.getDirection(), rel.getCardinality());
+        else if (rel.getB() == this) this.addNeighborIfAbsent(rel.getA(), rel.getDirection(), rel.getCardinality());
+    }
 
-        if (rel.getA() == this) a = rel.getB();
-        else if (rel.getB() == this) a = rel.getA();
-        else return;
+    public void addNeighborIfAbsent(PageArea a, int direction, int cardinality)
+    {
+        int distance;
 
         if (this.neighbors.containsKey(a)) return;
 
         distance = this.getDistanceAbsolute(a);
 
-        PageAreaRelation neighbor = new PageAreaRelation(this, a, distance, rel.getDirection());
-        neighbor.setCardinality(rel.getCardinality());
+        PageAreaRelation neighbor = new PageAreaRelation(this, a, distance, direction);
+        neighbor.setCardinality(cardinality);
         neighbor.setAbsoluteDistance(distance);
 
         this.neighbors.put(a, neighbor);
@@ -390,9 +383,9 @@ public class PageArea
     {
         int cnt = 0, sum = 0, val;
         this.maxNeighborDistance = 0;
-        for (Map.Entry<PageArea, PageAreaRelation> entry : this.neighbors.entrySet())
+        for (int i = this.neighbors.first(); i >= 0; i = this.neighbors.next(i))
         {
-            val = entry.getValue().getAbsoluteDistance();
+            val = this.neighbors.getRelation(i).getAbsoluteDistance();
             if (val > this.maxNeighborDistance) this.maxNeighborDistance = val;
             sum += val;
             cnt++;
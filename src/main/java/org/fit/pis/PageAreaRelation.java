@@ -1,9 +1,7 @@
 package org.fit.pis;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 
 public class PageAreaRelation
 {
@@ -20,6 +18,10 @@ public class PageAreaRelation
 
     private int cardinality;
 
+    /* Position and insertion order within RelationQueue */
+    private int queueIndex;
+    private long queueOrder;
+
     public PageAreaRelation(PageArea a, PageArea b, double similarity, int direction)
     {
         this.a = a;
@@ -28,6 +30,8 @@ public class PageAreaRelation
         this.setDirection(direction);
         this.setCardinality(1);
         this.setAlignmentScore(1);
+        this.queueIndex = -1;
+        this.queueOrder = 0;
     }
 
     public PageArea getA()
@@ -100,6 +104,26 @@ public class PageAreaRelation
         this.absoluteDistance = absoluteDistance;
     }
 
+    int getQueueIndex()
+    {
+        return queueIndex;
+    }
+
+    void setQueueIndex(int queueIndex)
+    {
+        this.queueIndex = queueIndex;
+    }
+
+    long getQueueOrder()
+    {
+        return queueOrder;
+    }
+
+    void setQueueOrder(long queueOrder)
+    {
+        this.queueOrder = queueOrder;
+    }
+
     @Override
     public String toString()
     {
@@ -121,6 +145,10 @@ public class PageAreaRelation
         this.alignmentScore += alignmentScore;
     }
 
+    /**
+     * Counts the areas aligned with the relation, by a traversal of the neighbors.
+     * AlignmentIndex gives the same scores for many relations at once.
+     */
     public int computeAlignmentScore()
     {
         int aligned = 1;
@@ -128,7 +156,7 @@ public class PageAreaRelation
         int alignment = PageArea.ALIGNMENT_NONE;
 
         ArrayList<PageArea> queue = new ArrayList<>();
-        HashMap<PageArea, PageAreaRelation> neighbors;
+        NeighborMap neighbors;
         HashSet<PageArea> inspected = new HashSet<>();
         PageArea area, cur;
         PageAreaRelation relation;
@@ -153,10 +181,10 @@ public class PageAreaRelation
             if (inspected.contains(cur) || queue.contains(cur)) continue;
 
             neighbors = cur.getNeighbors();
-            for (Map.Entry<PageArea, PageAreaRelation> entry: neighbors.entrySet())
+            for (int i = neighbors.first(); i >= 0; i = neighbors.next(i))
             {
-                area = entry.getKey();
-                relation = entry.getValue();
+                area = neighbors.getArea(i);
+                relation = neighbors.getRelation(i);
 
                 if (relation.getDirection() != this.direction ||
                     inspected.contains(area) || queue.contains(area) ||
@@ -0,0 +1,99 @@
+package org.fit.pis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Part of a page segmented on its own. The AreaProcessor2 works with copies
+ * of the areas (it changes them), the results are mapped back to the originals.
+ *
+ * Only the leaves and groups with the top edge in [top, bottom) are kept,
+ * the children of the groups are just views, the parents of the original
+ * areas are not changed (the originals may be shared with other parts).
+ *
+ * The fixed groups were made elsewhere, the groups of the part must not overlap them.
+ */
+class PagePart
+{
+    private final int top;
+    private final int bottom;
+    private final ArrayList<PageArea> input;
+    private final HashMap<PageArea, PageArea> originals;
+    private final ArrayList<PageArea> fixed;
+
+    public final ArrayList<PageArea> leaves;
+    public final ArrayList<PageArea> groups;
+
+    public PagePart()
+    {
+        this(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    public PagePart(int top, int bottom)
+    {
+        this.top = top;
+        this.bottom = bottom;
+        this.input = new ArrayList<>();
+        this.originals = new HashMap<>();
+        this.fixed = new ArrayList<>();
+        this.leaves = new ArrayList<>();
+        this.groups = new ArrayList<>();
+    }
+
+    public void add(PageArea a)
+    {
+        PageArea c = new PageArea(a);
+
+        this.input.add(c);
+        this.originals.put(c, a);
+    }
+
+    public void addFixedGroup(PageArea group)
+    {
+        this.fixed.add(new PageArea(group));
+    }
+
+    public boolean isEmpty()
+    {
+        return this.input.isEmpty();
+    }
+
+    public void segment(int width, int height, double threshold)
+    {
+        AreaProcessor2 h;
+        PageArea group;
+
+        try
+        {
+            h = new AreaProcessor2(this.input, width, height);
+            h.setThreshold(threshold);
+            for (PageArea g: this.fixed)
+            {
+                h.addFixedGroup(g);
+            }
+
+            for (PageArea leaf: h.getAreas())
+            {
+                if (leaf.getTop() < this.top || leaf.getTop() >= this.bottom) continue;
+
+                this.leaves.add(this.originals.get(leaf));
+            }
+
+            for (PageArea g: h.extractGroups(h.getAreas()))
+            {
+                if (g.getTop() < this.top || g.getTop() >= this.bottom) continue;
+
+                group = new PageArea(g);
+                for (PageArea child: g.getChildren())
+                {
+                    group.addChild(this.originals.get(child), true);
+                }
+                this.groups.add(group);
+            }
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package org.fit.pis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Indexed binary heap of relations used as the worklist of the clustering.
+ *
+ * The queue reproduces the order of the original sorted ArrayList exactly:
+ * relations are ordered by RelationComparator and ties are broken by the order
+ * in which the relations were inserted (which is what the stable
+ * Collections.sort used to do).
+ *
+ * Besides the heap, the queue indexes the relations by their end points so
+ * that the relations of a merged group can be found without scanning.
+ */
+class RelationQueue
+{
+    private PageAreaRelation[] heap;
+    private int size;
+    private long order;
+
+    private final HashMap<PageArea, ArrayList<PageAreaRelation>> incident;
+
+    private final RelationComparator relationComparator;
+    private final Comparator<PageAreaRelation> comparator;
+
+    public RelationQueue(List<PageAreaRelation> relations)
+    {
+        this.heap = new PageAreaRelation[Math.max(16, relations.size())];
+        this.incident = new HashMap<>();
+        this.relationComparator = new RelationComparator();
+        this.comparator = new Comparator<PageAreaRelation>() {
+            @Override
+            public int compare(PageAreaRelation a, PageAreaRelation b)
+            {
+                return RelationQueue.this.compare(a, b);
+            }
+        };
+
+        this.reset(relations);
+    }
+
+    /**
+     * Drops all the relations and fills the queue with new ones, as the constructor.
+     * The heap and the index are kept for the new relations.
+     */
+    public void reset(List<PageAreaRelation> relations)
+    {
+        Arrays.fill(this.heap, 0, this.size, null);
+        this.size = 0;
+        this.order = 0;
+        this.incident.clear();
+
+        for (PageAreaRelation rel: relations)
+        {
+            this.append(rel);
+        }
+        this.heapify();
+    }
+
+    public int size()
+    {
+        return this.size;
+    }
+
+    public boolean isEmpty()
+    {
+        return this.size == 0;
+    }
+
+    public boolean contains(PageAreaRelation rel)
+    {
+        int i = rel.getQueueIndex();
+        return i >= 0 && i < this.size && this.heap[i] == rel;
+    }
+
+    /**
+     * Inserts a relation after the relations equal to it.
+     */
+    public void add(PageAreaRelation rel)
+    {
+        this.append(rel);
+        this.siftUp(this.size-1);
+    }
+
+    public PageAreaRelation poll()
+    {
+        PageAreaRelation ret;
+
+        if (this.size == 0) return null;
+
+        ret = this.heap[0];
+        this.removeAt(0);
+
+        return ret;
+    }
+
+    public boolean remove(PageAreaRelation rel)
+    {
+        if (!this.contains(rel)) return false;
+
+        this.removeAt(rel.getQueueIndex());
+        return true;
+    }
+
+    /**
+     * Sorts the given relations in the order they would leave the queue.
+     */
+    public void sort(List<PageAreaRelation> relations)
+    {
+        relations.sort(this.comparator);
+    }
+
+    /**
+     * Returns the relations in the queue that have the area as one of their end points.
+     * The returned list must not be modified.
+     */
+    public List<PageAreaRelation> getIncident(PageArea area)
+    {
+        ArrayList<PageAreaRelation> list = this.incident.get(area);
+
+        if (list == null) return Collections.emptyList();
+        else return list;
+    }
+
+    private int compare(PageAreaRelation a, PageAreaRelation b)
+    {
+        int diff = this.relationComparator.compare(a, b);
+
+        if (diff != 0) return diff;
+        else return Long.compare(a.getQueueOrder(), b.getQueueOrder());
+    }
+
+    private void append(PageAreaRelation rel)
+    {
+        if (this.size == this.heap.length)
+        {
+            this.heap = Arrays.copyOf(this.heap, this.heap.length*2);
+        }
+
+        rel.setQueueOrder(this.order++);
+        this.place(rel, this.size);
+        this.size++;
+
+        this.link(rel.getA(), rel);
+        if (rel.getB() != rel.getA()) this.link(rel.getB(), rel);
+    }
+
+    private void removeAt(int i)
+    {
+        PageAreaRelation last;
+        PageAreaRelation rel = this.heap[i];
+
+        this.unlink(rel.getA(), rel);
+        this.unlink(rel.getB(), rel);
+
+        rel.setQueueIndex(-1);
+        this.size--;
+        last = this.heap[this.size];
+        this.heap[this.size] = null;
+
+        if (i == this.size) return;
+
+        this.place(last, i);
+        this.siftDown(i);
+        if (this.heap[i] == last)
+        {
+            this.siftUp(i);
+        }
+    }
+
+    private void link(PageArea area, PageAreaRelation rel)
+    {
+        ArrayList<PageAreaRelation> list = this.incident.get(area);
+
+        if (list == null)
+        {
+            list = new ArrayList<>(4);
+            this.incident.put(area, list);
+        }
+        list.add(rel);
+    }
+
+    private void unlink(PageArea area, PageAreaRelation rel)
+    {
+        ArrayList<PageAreaRelation> list = this.incident.get(area);
+
+        if (list == null) return;
+
+        list.remove(rel);
+        if (list.isEmpty())
+        {
+            this.incident.remove(area);
+        }
+    }
+
+    private void heapify()
+    {
+        for (int i = this.size/2-1; i >= 0; i--)
+        {
+            this.siftDown(i);
+        }
+    }
+
+    private void siftUp(int i)
+    {
+        PageAreaRelation rel = this.heap[i];
+        int parent;
+
+        while (i > 0)
+        {
+            parent = (i-1)/2;
+            if (this.compare(rel, this.heap[parent]) >= 0) break;
+
+            this.place(this.heap[parent], i);
+            i = parent;
+        }
+        this.place(rel, i);
+    }
+
+    private void siftDown(int i)
+    {
+        PageAreaRelation rel = this.heap[i];
+        int child;
+
+        while ((child = 2*i+1) < this.size)
+        {
+            if (child+1 < this.size && this.compare(this.heap[child+1], this.heap[child]) < 0)
+            {
+                child++;
+            }
+            if (this.compare(rel, this.heap[child]) <= 0) break;
+
+            this.place(this.heap[child], i);
+            i = child;
+        }
+        this.place(rel, i);
+    }
+
+    private void place(PageAreaRelation rel, int i)
+    {
+        this.heap[i] = rel;
+        rel.setQueueIndex(i);
+    }
+}
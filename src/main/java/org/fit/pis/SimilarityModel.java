@@ -0,0 +1,22 @@
+package org.fit.pis;
+
+/**
+ * Computes the similarity of related areas (the lower, the more similar)
+ * from their features. The features of many relations are passed at once
+ * in primitive arrays, relation i is described by the i-th items:
+ *
+ * shape, color - distances of the shapes and colors (PageArea.getShapeSimilarity(),
+ *                getColorSimilarity()), 0 for the same
+ * position - distance of the areas relative to their neighbors (PageArea.getDistanceNeighbor()),
+ *            0 for overlapping areas, over 1 for the areas that are not neighbors
+ * alignment - alignment score of the relation (PageAreaRelation.computeAlignmentScore())
+ *
+ * An implementation may be called from several threads at once.
+ */
+public interface SimilarityModel
+{
+    /**
+     * Stores the similarity of the relations 0..cnt-1 into result.
+     */
+    public void evaluate(double[] shape, double[] color, double[] position, int[] alignment, double[] result, int cnt);
+}
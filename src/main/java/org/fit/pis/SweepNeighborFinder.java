@@ -0,0 +1,294 @@
+package org.fit.pis;
+
+import java.util.Arrays;
+
+import com.infomatiq.jsi.Rectangle;
+
+/**
+ * Sweep-line search of the nearest neighbors of the leaf areas in the four
+ * directions used by the area graph.
+ *
+ * The result is the same set of areas as the one obtained by querying the
+ * area tree with the selectors reaching to the page border and keeping the
+ * nearest ones. Each direction is transformed to "going down": the areas are
+ * swept from the bottom up, a segment tree over the horizontal coordinates
+ * keeps the closest top edge below the sweep line, so the distance of the
+ * nearest candidate is found in logarithmic time. Only the (few) areas at that
+ * distance are then read from the area tree with a one pixel high window.
+ *
+ * The shortcut is valid only when the selector is a regular strip in front
+ * of the area (the area is at least three pixels wide across the direction and
+ * does not reach over the page border), {@link #getNeighbors(int, int)} returns
+ * null otherwise and the caller has to use the original query.
+ */
+class SweepNeighborFinder
+{
+    public static final int DIR_RIGHT = 0;
+    public static final int DIR_DOWN = 1;
+    public static final int DIR_LEFT = 2;
+    public static final int DIR_UP = 3;
+
+    private static final int[] EMPTY = new int[0];
+
+    private final AreaStore areas;
+    private final PackedAreaIndex areaTree;
+    private final int[][][] neighbors;
+
+    /* Transformed coordinates of the current direction */
+    private int direction;
+    private final int[] left;
+    private final int[] top;
+    private final int[] right;
+    private final int[] bottom;
+
+    public SweepNeighborFinder(AreaStore areas, PackedAreaIndex areaTree, int pageWidth, int pageHeight)
+    {
+        int cnt = areas.size();
+
+        this.areas = areas;
+        this.areaTree = areaTree;
+        this.neighbors = new int[4][][];
+        this.left = new int[cnt];
+        this.top = new int[cnt];
+        this.right = new int[cnt];
+        this.bottom = new int[cnt];
+
+        this.sweep(DIR_RIGHT, pageWidth);
+        this.sweep(DIR_DOWN, pageHeight);
+        this.sweep(DIR_LEFT, 0);
+        this.sweep(DIR_UP, 0);
+    }
+
+    /**
+     * Returns indexes of the nearest areas of an area in the given direction
+     * (sorted by the index), or null when the sweep result is not available.
+     */
+    public int[] getNeighbors(int area, int direction)
+    {
+        return this.neighbors[direction][area];
+    }
+
+    private void sweep(int direction, int pageBorder)
+    {
+        int cnt = this.areas.size();
+        int[][] result = new int[cnt][];
+        Integer[] byTop = new Integer[cnt];
+        Integer[] byBottom = new Integer[cnt];
+        int[] coords = new int[4*cnt];
+        int far;
+        int next;
+        int near, ql, qr;
+        int min;
+        MinTree tree;
+
+        this.direction = direction;
+        /* DOC: mirrored directions have their far border at 0 */
+        far = (direction == DIR_LEFT || direction == DIR_UP) ? 0 : pageBorder;
+
+        for (int i = 0; i < cnt; i++)
+        {
+            this.transform(i, direction);
+            byTop[i] = i;
+            byBottom[i] = i;
+            coords[4*i] = this.left[i];
+            coords[4*i+1] = this.right[i];
+            coords[4*i+2] = this.left[i]+1;
+            coords[4*i+3] = this.right[i]-1;
+        }
+        Arrays.sort(byTop, (x, y) -> Integer.compare(this.top[y], this.top[x]));
+        Arrays.sort(byBottom, (x, y) -> Integer.compare(this.bottom[y], this.bottom[x]));
+        Arrays.sort(coords);
+
+        tree = new MinTree(coords);
+        next = 0;
+        for (Integer i: byBottom)
+        {
+            /* The selector is [left+1, right-1] x [bottom+1, far] in the transformed space,
+             * the original selectors get flipped for areas smaller than 3px and the "up" and
+             * "left" ones are clipped at 0, neither of those fits the strip */
+            ql = this.left[i]+1;
+            qr = this.right[i]-1;
+            near = this.bottom[i]+1;
+            if (ql > qr || near > far)
+            {
+                result[i] = null;
+                continue;
+            }
+
+            while (next < cnt && this.top[byTop[next]] > this.bottom[i])
+            {
+                if (this.top[byTop[next]] <= far)
+                {
+                    tree.update(this.left[byTop[next]], this.right[byTop[next]], this.top[byTop[next]]);
+                }
+                next++;
+            }
+
+            /* Areas overlapping the bottom edge are at zero distance */
+            result[i] = this.collect(i, ql, qr, near, true);
+            if (result[i].length > 0) continue;
+
+            min = tree.query(ql, qr);
+            if (min == Integer.MAX_VALUE) result[i] = EMPTY;
+            else result[i] = this.collect(i, ql, qr, min, false);
+        }
+
+        this.neighbors[direction] = result;
+    }
+
+    /**
+     * Collects the areas crossing the horizontal line y (in the transformed space)
+     * within [ql, qr]. Either those which started above the line (zero distance),
+     * or those starting right at the line.
+     */
+    private int[] collect(final int area, final int ql, final int qr, final int y, final boolean overlapping)
+    {
+        final AreaMatch match = new AreaMatch();
+        int[] ret;
+        int cnt;
+        int b;
+
+        this.areaTree.intersects(this.inverse(ql, y, qr, y), match);
+        ret = new int[match.getIds().size()];
+        cnt = 0;
+        for (Integer id: match.getIds())
+        {
+            b = id;
+            if (b == area) continue;
+            if (this.left[b] > qr || this.right[b] < ql) continue;
+            if (this.bottom[b] < y) continue;
+            if (overlapping && this.top[b] >= y) continue;
+            if (!overlapping && this.top[b] != y) continue;
+
+            ret[cnt++] = b;
+        }
+
+        ret = Arrays.copyOf(ret, cnt);
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    private void transform(int i, int direction)
+    {
+        switch (direction)
+        {
+            case DIR_RIGHT:
+                this.left[i] = this.areas.getTop(i);
+                this.right[i] = this.areas.getBottom(i);
+                this.top[i] = this.areas.getLeft(i);
+                this.bottom[i] = this.areas.getRight(i);
+                break;
+            case DIR_DOWN:
+                this.left[i] = this.areas.getLeft(i);
+                this.right[i] = this.areas.getRight(i);
+                this.top[i] = this.areas.getTop(i);
+                this.bottom[i] = this.areas.getBottom(i);
+                break;
+            case DIR_LEFT:
+                this.left[i] = this.areas.getTop(i);
+                this.right[i] = this.areas.getBottom(i);
+                this.top[i] = -this.areas.getRight(i);
+                this.bottom[i] = -this.areas.getLeft(i);
+                break;
+            default:
+                this.left[i] = this.areas.getLeft(i);
+                this.right[i] = this.areas.getRight(i);
+                this.top[i] = -this.areas.getBottom(i);
+                this.bottom[i] = -this.areas.getTop(i);
+                break;
+        }
+    }
+
+    private Rectangle inverse(int x1, int y1, int x2, int y2)
+    {
+        switch (this.direction)
+        {
+            case DIR_RIGHT:
+                return new Rectangle(y1, x1, y2, x2);
+            case DIR_DOWN:
+                return new Rectangle(x1, y1, x2, y2);
+            case DIR_LEFT:
+                return new Rectangle(-y2, x1, -y1, x2);
+            default:
+                return new Rectangle(x1, -y2, x2, -y1);
+        }
+    }
+
+    /**
+     * Segment tree over compressed coordinates supporting "lower the value
+     * on an interval" and "minimum over an interval".
+     */
+    private static class MinTree
+    {
+        private final int[] coords;
+        private final int size;
+        private final int[] min;
+        private final int[] tag;
+
+        public MinTree(int[] sortedCoords)
+        {
+            int cnt = 0;
+
+            /* Remove duplicates */
+            this.coords = new int[sortedCoords.length];
+            for (int i = 0; i < sortedCoords.length; i++)
+            {
+                if (cnt == 0 || this.coords[cnt-1] != sortedCoords[i])
+                {
+                    this.coords[cnt++] = sortedCoords[i];
+                }
+            }
+            this.size = Math.max(cnt, 1);
+            this.min = new int[4*this.size];
+            this.tag = new int[4*this.size];
+            Arrays.fill(this.min, Integer.MAX_VALUE);
+            Arrays.fill(this.tag, Integer.MAX_VALUE);
+        }
+
+        public void update(int from, int to, int value)
+        {
+            this.update(1, 0, this.size-1, this.index(from), this.index(to), value);
+        }
+
+        public int query(int from, int to)
+        {
+            return this.query(1, 0, this.size-1, this.index(from), this.index(to));
+        }
+
+        private int index(int coord)
+        {
+            return Arrays.binarySearch(this.coords, 0, this.size, coord);
+        }
+
+        private void update(int node, int l, int r, int from, int to, int value)
+        {
+            int mid;
+
+            if (to < l || r < from) return;
+
+            this.min[node] = Math.min(this.min[node], value);
+            if (from <= l && r <= to)
+            {
+                this.tag[node] = Math.min(this.tag[node], value);
+                return;
+            }
+
+            mid = (l+r)/2;
+            this.update(2*node, l, mid, from, to, value);
+            this.update(2*node+1, mid+1, r, from, to, value);
+        }
+
+        private int query(int node, int l, int r, int from, int to)
+        {
+            int mid;
+
+            if (to < l || r < from) return Integer.MAX_VALUE;
+            if (from <= l && r <= to) return this.min[node];
+
+            mid = (l+r)/2;
+            return Math.min(this.tag[node],
+                            Math.min(this.query(2*node, l, mid, from, to),
+                                     this.query(2*node+1, mid+1, r, from, to)));
+        }
+    }
+}
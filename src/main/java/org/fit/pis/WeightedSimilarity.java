@@ -0,0 +1,57 @@
+package org.fit.pis;
+
+/**
+ * Weighted sum of the feature distances divided by the alignment score,
+ * the default weights give the original formula of PageArea.getSimilarity().
+ * Overlapping areas are always the most similar, areas that are not
+ * neighbors the least similar.
+ */
+public class WeightedSimilarity implements SimilarityModel
+{
+    private final double shapeWeight;
+    private final double colorWeight;
+    private final double positionWeight;
+
+    public WeightedSimilarity()
+    {
+        this(0.3, 0.5, 0.2);
+    }
+
+    public WeightedSimilarity(double shapeWeight, double colorWeight, double positionWeight)
+    {
+        this.shapeWeight = shapeWeight;
+        this.colorWeight = colorWeight;
+        this.positionWeight = positionWeight;
+    }
+
+    @Override
+    public void evaluate(double[] shape, double[] color, double[] position, int[] alignment, double[] result, int cnt)
+    {
+        for (int i = 0; i < cnt; i++)
+        {
+            result[i] = (this.shapeWeight*shape[i] + this.colorWeight*color[i] + this.positionWeight*position[i])/(2*alignment[i]);
+        }
+
+        /* The special cases separately, the loop above has no branches */
+        for (int i = 0; i < cnt; i++)
+        {
+            if (position[i] == 0.0) result[i] = 0.0;
+            else if (position[i] > 1.0) result[i] = 1.0;
+        }
+    }
+
+    public double getShapeWeight()
+    {
+        return this.shapeWeight;
+    }
+
+    public double getColorWeight()
+    {
+        return this.colorWeight;
+    }
+
+    public double getPositionWeight()
+    {
+        return this.positionWeight;
+    }
+}
@@ -0,0 +1,59 @@
+package org.fit.pis.out;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.fit.pis.MergeTree;
+import org.fit.pis.cssbox.Output;
+
+/**
+ * Writes the whole segment tree built by the clustering, one node per line:
+ *
+ * id parent similarity x,y,w,h:rgb child child ...
+ *
+ * The leaf areas come first (ids 0..n-1, no children, similarity 0), the groups
+ * follow in the order they were created, so each group is written after all
+ * its children. Roots have the parent -1. The lines are written as they are
+ * produced, the output is never kept in memory as a whole.
+ */
+public class TreeOutput implements Output {
+    private MergeTree tree;
+
+    public TreeOutput(MergeTree tree) {
+        this.tree = tree;
+    }
+
+    @Override
+    public void save(String path) {
+        Writer out;
+        try {
+            out = new BufferedWriter(new FileWriter(path));
+            this.write(out);
+            out.close();
+        } catch (IOException e) {
+        }
+    }
+
+    public void write(Writer out) throws IOException {
+        StringBuilder line = new StringBuilder();
+
+        for (int node = 0; node < this.tree.getNodeCount(); node++) {
+            line.setLength(0);
+            line.append(node).append(' ');
+            line.append(this.tree.getParent(node)).append(' ');
+            line.append(this.tree.getSimilarity(node)).append(' ');
+            line.append(this.tree.getLeft(node)).append(',');
+            line.append(this.tree.getTop(node)).append(',');
+            line.append(this.tree.getRight(node)-this.tree.getLeft(node)+1).append(',');
+            line.append(this.tree.getBottom(node)-this.tree.getTop(node)+1).append(':');
+            line.append(this.tree.getColor(node).getRGB());
+            for (int child: this.tree.getChildren(node)) {
+                line.append(' ').append(child);
+            }
+            line.append('\n');
+            out.write(line.toString());
+        }
+    }
+}
@@ -43,13 +43,20 @@ public class PrecisionCounter {
     private SpatialIndex boxTree;
 
     private String filePrefix;
+    /* "boxes" for the runs with each threshold, "cut" for the cuts of Main's "all" mode */
+    private String resultName;
 
     public PrecisionCounter(String groupsFilename) {
+        this(groupsFilename, "boxes");
+    }
+
+    public PrecisionCounter(String groupsFilename, String resultName) {
         int pos;
         String boxesFilename;
 
         pos = groupsFilename.lastIndexOf("-groups.txt");
         this.filePrefix = groupsFilename.substring(0, pos);
+        this.resultName = resultName;
         boxesFilename = this.filePrefix + "-boxes.txt";
 
         this.groups = this.parseFile(groupsFilename);
@@ -81,9 +88,9 @@ public class PrecisionCounter {
         for (int i = 1; i <= 10; i++) {
 //            System.out.print(i+" ");
             if (i < 10) {
-                filename = this.filePrefix + "-boxes-0." + i + ".txt";
+                filename = this.filePrefix + "-" + this.resultName + "-0." + i + ".txt";
             } else {
-                filename = this.filePrefix + "-boxes-1.0.txt";
+                filename = this.filePrefix + "-" + this.resultName + "-1.0.txt";
             }
             areas = this.parseFile(filename);
             if (metric == METRIC_F) {
@@ -314,9 +321,10 @@ public class PrecisionCounter {
 
     public static void main(String[] args) {
         int metric;
+        String resultName;
 
         if (args.length < 2) {
-            System.out.println("Usage: ./calculate.sh F|ARI <path-to-group-file>");
+            System.out.println("Usage: ./calculate.sh F|ARI <path-to-group-file> [cut]");
             System.exit(1);
         }
 
@@ -326,7 +334,13 @@ public class PrecisionCounter {
             metric = METRIC_F;
         }
 
-        PrecisionCounter counter = new PrecisionCounter(args[1]);
+        if (args.length > 2 && args[2].toLowerCase().equals("cut")) {
+            resultName = "cut";
+        } else {
+            resultName = "boxes";
+        }
+
+        PrecisionCounter counter = new PrecisionCounter(args[1], resultName);
         counter.calculate(metric);
     }
 }
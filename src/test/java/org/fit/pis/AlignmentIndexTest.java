@@ -0,0 +1,120 @@
+package org.fit.pis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * The alignment scores of the index have to be the ones of the traversal
+ * in PageAreaRelation.computeAlignmentScore().
+ */
+public class AlignmentIndexTest
+{
+    @Test
+    public void rowPages() throws Exception
+    {
+        ArrayList<PageArea> page;
+
+        for (long seed = 1; seed <= 6; seed++)
+        {
+            page = TestPages.rows(seed, 120);
+            this.check("seed "+seed, this.graph(page, TestPages.WIDTH, TestPages.height(page)));
+        }
+    }
+
+    @Test
+    public void scatteredPages() throws Exception
+    {
+        for (long seed = 1; seed <= 10; seed++)
+        {
+            this.check("seed "+seed, this.graph(TestPages.scattered(seed, 300, 2000), TestPages.WIDTH, 2000));
+        }
+    }
+
+    /**
+     * Long chains of aligned areas of the same size.
+     */
+    @Test
+    public void grid() throws Exception
+    {
+        ArrayList<PageArea> page = new ArrayList<>();
+        List<PageAreaRelation> relations;
+        int aligned = 0;
+
+        for (int r = 0; r < 40; r++)
+        {
+            for (int c = 0; c < 30; c++)
+            {
+                page.add(new PageArea(Color.red, c*30, r*20, c*30+25, r*20+15));
+            }
+        }
+
+        relations = this.graph(page, 1000, 1000);
+        this.check("grid", relations);
+        for (PageAreaRelation rel: relations)
+        {
+            if (rel.getAlignmentScore() > 2) aligned++;
+        }
+        assertTrue(aligned > 0);
+    }
+
+    /**
+     * One index scoring the relations of several pages, bigger and smaller.
+     */
+    @Test
+    public void indexReused() throws Exception
+    {
+        AlignmentIndex index = new AlignmentIndex();
+        List<PageAreaRelation> relations;
+
+        for (int rows: new int[]{150, 20, 80})
+        {
+            relations = this.graph(TestPages.rows(rows, rows), TestPages.WIDTH, 5000);
+            for (PageAreaRelation rel: relations)
+            {
+                rel.setAlignmentScore(0);
+            }
+            index.computeScores(relations);
+            this.check("rows "+rows, relations);
+        }
+    }
+
+    /**
+     * A part of the relations, the areas reachable from them are still counted.
+     */
+    @Test
+    public void someRelations() throws Exception
+    {
+        ArrayList<PageArea> page = TestPages.rows(7, 100);
+        List<PageAreaRelation> relations = this.graph(page, TestPages.WIDTH, TestPages.height(page));
+        List<PageAreaRelation> part = new ArrayList<>();
+
+        for (int i = 0; i < relations.size(); i += 7)
+        {
+            part.add(relations.get(i));
+            relations.get(i).setAlignmentScore(0);
+        }
+        new AlignmentIndex().computeScores(part);
+        this.check("part", part);
+    }
+
+    private List<PageAreaRelation> graph(List<PageArea> page, int width, int height) throws Exception
+    {
+        AreaProcessor2 p = new AreaProcessor2(TestPages.copy(page), width, height);
+
+        return p.getAreaGraph(p.getAreas());
+    }
+
+    private void check(String msg, List<PageAreaRelation> relations)
+    {
+        for (PageAreaRelation rel: relations)
+        {
+            assertEquals(msg+" "+rel, rel.computeAlignmentScore(), rel.getAlignmentScore());
+        }
+    }
+}
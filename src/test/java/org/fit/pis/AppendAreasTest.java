@@ -0,0 +1,62 @@
+package org.fit.pis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class AppendAreasTest
+{
+    /**
+     * The areas appended below the initial page size have to be found by the
+     * existing areas above them.
+     */
+    @Test
+    public void pageGrowsWithAppendedAreas() throws Exception
+    {
+        ArrayList<PageArea> head = new ArrayList<>();
+        ArrayList<PageArea> tail = new ArrayList<>();
+        ArrayList<PageArea> groups;
+        AreaProcessor2 p;
+
+        head.add(new PageArea(Color.red, 10, 10, 50, 30));
+        tail.add(new PageArea(Color.red, 10, 200, 50, 220));
+        tail.add(new PageArea(Color.red, 10, 400, 50, 420));
+
+        p = new AreaProcessor2(head, 100, 100);
+        p.setThreshold(1.0);
+        p.extractGroups(p.getAreas());
+
+        groups = p.appendAreas(tail);
+        assertEquals(1, groups.size());
+        assertEquals(10, groups.get(0).getTop());
+        assertEquals(220, groups.get(0).getBottom());
+    }
+
+    /**
+     * The same for the areas appended right of the page.
+     */
+    @Test
+    public void pageGrowsToTheRight() throws Exception
+    {
+        ArrayList<PageArea> head = new ArrayList<>();
+        ArrayList<PageArea> tail = new ArrayList<>();
+        ArrayList<PageArea> groups;
+        AreaProcessor2 p;
+
+        head.add(new PageArea(Color.red, 10, 10, 30, 50));
+        tail.add(new PageArea(Color.red, 200, 10, 220, 50));
+        tail.add(new PageArea(Color.red, 400, 10, 420, 50));
+
+        p = new AreaProcessor2(head, 100, 100);
+        p.setThreshold(1.0);
+        p.extractGroups(p.getAreas());
+
+        groups = p.appendAreas(tail);
+        assertEquals(1, groups.size());
+        assertEquals(10, groups.get(0).getLeft());
+        assertEquals(220, groups.get(0).getRight());
+    }
+}
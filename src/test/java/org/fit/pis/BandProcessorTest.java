@@ -0,0 +1,100 @@
+package org.fit.pis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BandProcessorTest
+{
+    private static List<String> describe(List<PageArea> groups, List<PageArea> ungrouped)
+    {
+        ArrayList<String> ret = new ArrayList<>();
+
+        for (PageArea g: groups)
+        {
+            ret.add("G "+g.getLeft()+","+g.getTop()+","+g.getRight()+","+g.getBottom()+" "+g.getChildren().size());
+        }
+        for (PageArea a: ungrouped)
+        {
+            ret.add("U "+a.getLeft()+","+a.getTop()+","+a.getRight()+","+a.getBottom());
+        }
+        Collections.sort(ret);
+
+        return ret;
+    }
+
+    /**
+     * The blocks start at the band edges and never see each other, so no group
+     * crosses a seam and the bands give the groups of the whole page.
+     */
+    @Test
+    public void bandsWithoutCrossingGroupsMatchWholePage() throws Exception
+    {
+        ArrayList<PageArea> page = TestPages.blocks(3, 8);
+        int size = TestPages.height(page);
+        AreaProcessor2 whole;
+        BandProcessor bands;
+        List<String> expected;
+        List<String> actual;
+
+        whole = new AreaProcessor2(TestPages.copy(page), size, size);
+        expected = describe(whole.extractGroups(whole.getAreas()), whole.getUngrouped());
+
+        bands = new BandProcessor(TestPages.copy(page), size, size);
+        bands.setBandHeight(2*TestPages.BLOCK_SIZE);
+        bands.setMargin(TestPages.BLOCK_SIZE/3);
+        bands.setParallelism(2);
+        actual = describe(bands.extractGroups(), bands.getUngrouped());
+
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Groups of the page straddle the seams of the narrow bands. The groups
+     * resolved at the seams must not overlap the ones kept from the bands (the
+     * whole page has no overlapping groups either) and every leaf ends up in
+     * exactly one group or ungrouped.
+     */
+    @Test
+    public void straddlingGroupsDoNotOverlap() throws Exception
+    {
+        ArrayList<PageArea> page = TestPages.spread(1, 600, 2000);
+        int height = TestPages.height(page);
+        AreaProcessor2 whole;
+        BandProcessor bands;
+        ArrayList<PageArea> groups;
+        IdentityHashMap<PageArea, Integer> seen = new IdentityHashMap<>();
+        int leafCnt;
+
+        whole = new AreaProcessor2(TestPages.copy(page), TestPages.WIDTH, height);
+        assertEquals(0, TestPages.overlaps(whole.extractGroups(whole.getAreas())));
+
+        bands = new BandProcessor(page, TestPages.WIDTH, height);
+        bands.setBandHeight(250);
+        bands.setMargin(30);
+        groups = bands.extractGroups();
+        assertEquals(0, TestPages.overlaps(groups));
+
+        leafCnt = bands.getUngrouped().size();
+        for (PageArea a: bands.getUngrouped())
+        {
+            seen.put(a, 0);
+        }
+        for (PageArea g: groups)
+        {
+            leafCnt += g.getChildren().size();
+            for (PageArea a: g.getChildren())
+            {
+                seen.put(a, 0);
+            }
+        }
+        assertEquals(seen.size(), leafCnt);
+    }
+}
@@ -0,0 +1,134 @@
+package org.fit.pis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DiffProcessorTest
+{
+    private static List<String> describe(List<PageArea> groups)
+    {
+        ArrayList<String> ret = new ArrayList<>();
+
+        for (PageArea g: groups)
+        {
+            ret.add(g.getLeft()+","+g.getTop()+","+g.getRight()+","+g.getBottom()+" "+g.getChildren().size());
+        }
+        Collections.sort(ret);
+
+        return ret;
+    }
+
+    /**
+     * The same page again keeps every previous group and clusters nothing.
+     */
+    @Test
+    public void noEditKeepsEveryGroup() throws Exception
+    {
+        ArrayList<PageArea> page = TestPages.rows(2, 40);
+        ArrayList<PageArea> again = TestPages.copy(page);
+        ArrayList<PageArea> order = new ArrayList<>(again);
+        int height = TestPages.height(page);
+        AreaProcessor2 previous;
+        ArrayList<PageArea> groups;
+        DiffProcessor diff;
+
+        previous = new AreaProcessor2(page, TestPages.WIDTH, height);
+        groups = previous.extractGroups(previous.getAreas());
+
+        diff = new DiffProcessor(previous.getAreas(), groups, again, TestPages.WIDTH, height);
+        assertEquals(describe(groups), describe(diff.extractGroups()));
+        assertEquals(groups.size(), diff.getKeptGroupCount());
+        assertEquals(0, diff.getReclusteredCount());
+
+        /* The list of the caller is not reordered */
+        for (int i = 0; i < order.size(); i++)
+        {
+            assertSame(order.get(i), again.get(i));
+        }
+    }
+
+    /**
+     * A leaf removed in the last block leaves the groups of the first blocks alone.
+     */
+    @Test
+    public void farEditKeepsGroups() throws Exception
+    {
+        ArrayList<PageArea> page = TestPages.blocks(4, 4);
+        ArrayList<PageArea> edited = TestPages.copy(page);
+        int size = TestPages.height(page);
+        AreaProcessor2 previous;
+        ArrayList<PageArea> groups;
+        ArrayList<PageArea> far = new ArrayList<>();
+        DiffProcessor diff;
+        List<String> result;
+
+        previous = new AreaProcessor2(page, size, size);
+        groups = previous.extractGroups(previous.getAreas());
+        for (PageArea g: groups)
+        {
+            if (g.getBottom() < 2*TestPages.BLOCK_SIZE) far.add(g);
+        }
+        assertTrue(!far.isEmpty());
+
+        edited.remove(edited.size()-1);
+        diff = new DiffProcessor(previous.getAreas(), groups, edited, size, size);
+        result = describe(diff.extractGroups());
+
+        assertTrue(result.containsAll(describe(far)));
+        assertTrue(diff.getKeptGroupCount() >= far.size());
+        assertTrue(diff.getKeptGroupCount() < groups.size());
+    }
+
+    /**
+     * Five leaves removed and five added: the groups clustered again around the
+     * changes must not grow over the kept groups, so there are no more overlapping
+     * groups than in a full run over the edited page.
+     */
+    @Test
+    public void editedPageOverlapsNoMoreThanFullRun() throws Exception
+    {
+        ArrayList<PageArea> page = TestPages.spread(11, 300, 800);
+        ArrayList<PageArea> edited = TestPages.copy(page);
+        int height = TestPages.height(page)+100;
+        Random random = new Random(11);
+        AreaProcessor2 previous, full;
+        ArrayList<PageArea> groups;
+        DiffProcessor diff;
+        boolean free;
+        int added = 0;
+        int overlaps;
+
+        previous = new AreaProcessor2(page, TestPages.WIDTH, height);
+        groups = previous.extractGroups(previous.getAreas());
+
+        for (int i = 0; i < 5; i++)
+        {
+            edited.remove(random.nextInt(edited.size()));
+        }
+        for (PageArea a: TestPages.spread(111, 300, 800))
+        {
+            free = true;
+            for (PageArea b: edited)
+            {
+                if (a.overlaps(b)) free = false;
+            }
+            if (free) edited.add(a);
+            if (free && ++added == 5) break;
+        }
+
+        full = new AreaProcessor2(TestPages.copy(edited), TestPages.WIDTH, height);
+        diff = new DiffProcessor(previous.getAreas(), groups, edited, TestPages.WIDTH, height);
+
+        overlaps = TestPages.overlaps(diff.extractGroups());
+        assertTrue(diff.getKeptGroupCount() > 0);
+        assertTrue(overlaps <= TestPages.overlaps(full.extractGroups(full.getAreas())));
+    }
+}
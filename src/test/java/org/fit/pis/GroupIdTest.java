@@ -0,0 +1,54 @@
+package org.fit.pis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class GroupIdTest
+{
+    /**
+     * The former ids made of the top and left edges of a group were the same
+     * for the groups at (top 0, left 10000) and (top 1, left 0), and one of
+     * the groups replaced the other in the map of getGroups().
+     */
+    @Test
+    public void groupsWithCollidingPositionsKeepTheirIds() throws Exception
+    {
+        ArrayList<PageArea> areas = new ArrayList<>();
+        ArrayList<PageArea> groups;
+        AreaProcessor2 p;
+        PageArea a, b;
+
+        areas.add(new PageArea(Color.red, 10000, 0, 10040, 20));
+        areas.add(new PageArea(Color.red, 10045, 0, 10085, 20));
+        areas.add(new PageArea(Color.blue, 0, 1, 40, 21));
+        areas.add(new PageArea(Color.blue, 45, 1, 85, 21));
+
+        /* Square, the processor swaps the width and the height of the page */
+        p = new AreaProcessor2(areas, 10100, 10100);
+        p.setThreshold(0.5);
+        p.extractGroups(p.getAreas());
+
+        groups = p.getGroups();
+        assertEquals(2, groups.size());
+        a = groups.get(0);
+        b = groups.get(1);
+        assertTrue(a.getId() != b.getId());
+        assertEquals(0, Math.min(a.getId(), b.getId()));
+        assertEquals(1, Math.max(a.getId(), b.getId()));
+
+        if (a.getLeft() > b.getLeft())
+        {
+            a = groups.get(1);
+            b = groups.get(0);
+        }
+        assertEquals(0, a.getLeft());
+        assertEquals(1, a.getTop());
+        assertEquals(10000, b.getLeft());
+        assertEquals(0, b.getTop());
+    }
+}
@@ -0,0 +1,135 @@
+package org.fit.pis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Color;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class GroupMembershipTest
+{
+    private static ArrayList<PageArea> leaves(int cnt)
+    {
+        ArrayList<PageArea> ret = new ArrayList<>();
+
+        for (int i = 0; i < cnt; i++)
+        {
+            ret.add(new PageArea(Color.red, 20*i, 0, 20*i+10, 10));
+        }
+        /* The store gives the leaves their indexes */
+        new AreaStore(ret);
+
+        return ret;
+    }
+
+    private static PageArea group(PageArea... children)
+    {
+        PageArea g = new PageArea(children[0]);
+
+        for (PageArea c: children)
+        {
+            g.addChild(c);
+        }
+        return g;
+    }
+
+    private static void assertState(GroupMembership m, ArrayList<PageArea> leaves, PageArea[] groups, int[] sizes)
+    {
+        for (int i = 0; i < leaves.size(); i++)
+        {
+            assertSame(groups[i], m.getGroup(leaves.get(i)));
+            assertEquals(sizes[i], m.setSize(i));
+        }
+    }
+
+    /**
+     * Rolling back several unions (and the path compression done meanwhile)
+     * restores the groups and the sizes of the sets committed before.
+     */
+    @Test
+    public void rollbackRestoresSets()
+    {
+        ArrayList<PageArea> l = leaves(8);
+        GroupMembership m = new GroupMembership(l);
+        PageArea g1, g2, g3;
+        PageArea[] groups;
+        int[] sizes;
+
+        g1 = group(l.get(0), l.get(1));
+        m.merge(g1, l.get(0), l.get(1));
+        g2 = group(l.get(2), l.get(3));
+        m.merge(g2, l.get(2), l.get(3));
+        m.add(g2, l.get(4));
+        m.commit();
+
+        groups = new PageArea[] {g1, g1, g2, g2, g2, null, null, null};
+        sizes = new int[] {2, 2, 3, 3, 3, 1, 1, 1};
+        assertState(m, l, groups, sizes);
+
+        m.begin();
+        g3 = group(l.get(0), l.get(1), l.get(2), l.get(3), l.get(4));
+        m.merge(g3, g1, g2);
+        m.add(g3, l.get(5));
+        m.add(g3, l.get(6));
+        assertSame(g3, m.getGroup(l.get(6)));
+        assertEquals(7, m.setSize(0));
+        m.rollback();
+
+        assertState(m, l, groups, sizes);
+
+        /* A committed tentative group stays */
+        m.begin();
+        g3 = group(l.get(5), l.get(6));
+        m.merge(g3, l.get(5), l.get(6));
+        m.commit();
+        groups[5] = g3;
+        groups[6] = g3;
+        sizes[5] = 2;
+        sizes[6] = 2;
+        assertState(m, l, groups, sizes);
+    }
+
+    /**
+     * A fork rolls back its own changes, its commits are seen by the shared sets.
+     */
+    @Test
+    public void forkRollsBackOwnChanges()
+    {
+        ArrayList<PageArea> l = leaves(6);
+        GroupMembership m = new GroupMembership(l);
+        GroupMembership fork = m.fork();
+        PageArea g1, g2;
+
+        fork.begin();
+        g1 = group(l.get(0), l.get(1));
+        fork.merge(g1, l.get(0), l.get(1));
+        fork.add(g1, l.get(2));
+        fork.rollback();
+        assertState(m, l, new PageArea[6], new int[] {1, 1, 1, 1, 1, 1});
+
+        fork.begin();
+        g2 = group(l.get(3), l.get(4));
+        fork.merge(g2, l.get(3), l.get(4));
+        fork.commit();
+        assertState(m, l, new PageArea[] {null, null, null, g2, g2, null}, new int[] {1, 1, 1, 2, 2, 1});
+    }
+
+    /**
+     * Areas not added as leaves (groups, areas indexed by another store) are not found.
+     */
+    @Test
+    public void foreignAreasAreNotLeaves()
+    {
+        ArrayList<PageArea> l = leaves(3);
+        ArrayList<PageArea> other = leaves(3);
+        GroupMembership m = new GroupMembership(l);
+
+        assertEquals(1, m.indexOf(l.get(1)));
+        assertEquals(-1, m.indexOf(other.get(1)));
+        assertEquals(-1, m.indexOf(group(l.get(0), l.get(1))));
+        assertNull(m.getGroup(other.get(0)));
+    }
+}
@@ -0,0 +1,193 @@
+package org.fit.pis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.infomatiq.jsi.Rectangle;
+
+/**
+ * The edges kept in the columns of NeighborBatch have to make the graph of the
+ * nearest neighbors, compared with a search over all the pairs of the leaves.
+ */
+public class NeighborBatchTest
+{
+    private static final int SIZE = 1000;
+
+    @Test
+    public void nearestCandidatesOnly()
+    {
+        ArrayList<PageArea> leaves = new ArrayList<>();
+        NeighborBatch batch = new NeighborBatch();
+
+        leaves.add(new PageArea(Color.red, 0, 0, 10, 10));
+        leaves.add(new PageArea(Color.red, 20, 0, 30, 10));
+        leaves.add(new PageArea(Color.red, 0, 20, 10, 30));
+        leaves.add(new PageArea(Color.red, 50, 0, 60, 10));
+
+        batch.clear();
+        for (int i = 0; i < leaves.size(); i++)
+        {
+            batch.execute(i);
+        }
+        /* The area itself is left out */
+        assertEquals(10, batch.measureCandidates(leaves.get(0), leaves));
+        batch.addNearest(0, PageAreaRelation.DIRECTION_HORIZONTAL, true);
+
+        /* The two candidates 10px far, in the order they were found */
+        assertEquals(2, batch.size);
+        assertEquals(1, batch.b[0]);
+        assertEquals(2, batch.b[1]);
+        assertEquals(10, batch.distance[0]);
+        assertEquals(0, batch.a[1]);
+        assertEquals(true, batch.forward[1]);
+
+        batch.dropCandidates();
+        assertEquals(Integer.MAX_VALUE, batch.measureCandidates(leaves.get(0), leaves));
+        batch.addNearest(0, PageAreaRelation.DIRECTION_VERTICAL, false);
+        assertEquals(2, batch.size);
+    }
+
+    @Test
+    public void columnsGrow()
+    {
+        ArrayList<PageArea> leaves = new ArrayList<>();
+        NeighborBatch batch = new NeighborBatch();
+
+        leaves.add(new PageArea(Color.red, 0, 0, 10, 1000));
+        for (int i = 0; i < 40; i++)
+        {
+            leaves.add(new PageArea(Color.red, 20, 20*i, 30, 20*i+10));
+        }
+
+        batch.clear();
+        for (int i = 0; i < leaves.size(); i++)
+        {
+            batch.execute(i);
+        }
+        batch.measureCandidates(leaves.get(0), leaves);
+        batch.addNearest(0, PageAreaRelation.DIRECTION_HORIZONTAL, true);
+
+        assertEquals(40, batch.size);
+        for (int e = 0; e < batch.size; e++)
+        {
+            assertEquals(e+1, batch.b[e]);
+            assertEquals(10, batch.distance[e]);
+            assertEquals(PageAreaRelation.DIRECTION_HORIZONTAL, batch.direction[e]);
+        }
+    }
+
+    @Test
+    public void graphOfTheNearestNeighbors() throws Exception
+    {
+        ArrayList<PageArea> page;
+        AreaProcessor2 p;
+
+        for (long seed = 1; seed <= 20; seed++)
+        {
+            page = TestPages.scattered(seed, 30+15*(int)seed, SIZE);
+            for (int search: new int[]{AreaProcessor2.NEIGHBOR_SEARCH_RTREE, AreaProcessor2.NEIGHBOR_SEARCH_SWEEP})
+            {
+                p = new AreaProcessor2(TestPages.copy(page), SIZE, SIZE);
+                p.setNeighborSearch(search);
+                assertEquals("seed "+seed, this.reference(p.getAreas()), this.graph(p, p.getAreaGraph(p.getAreas())));
+            }
+        }
+    }
+
+    private TreeSet<String> graph(AreaProcessor2 p, List<PageAreaRelation> relations)
+    {
+        List<PageArea> leaves = p.getAreas();
+        IdentityHashMap<PageArea, Integer> index = new IdentityHashMap<>();
+        TreeSet<String> ret = new TreeSet<>();
+        NeighborMap neighbors;
+
+        for (int i = 0; i < leaves.size(); i++)
+        {
+            index.put(leaves.get(i), i);
+        }
+        for (PageAreaRelation rel: relations)
+        {
+            ret.add("R "+index.get(rel.getA())+" "+index.get(rel.getB())+" "+rel.getDirection()+" "+rel.getAbsoluteDistance());
+        }
+        for (int i = 0; i < leaves.size(); i++)
+        {
+            neighbors = leaves.get(i).getNeighbors();
+            for (int slot = neighbors.first(); slot >= 0; slot = neighbors.next(slot))
+            {
+                ret.add("N "+i+" "+index.get(neighbors.getArea(slot))+" "+neighbors.getRelation(slot).getAbsoluteDistance());
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * The nearest leaves in each direction found by testing all the leaves: the ones
+     * right and down make the relations, all of them are neighbors of both areas.
+     */
+    private TreeSet<String> reference(List<PageArea> leaves)
+    {
+        TreeSet<String> ret = new TreeSet<>();
+        PageArea a, b;
+        Rectangle selector;
+        int nearest, direction;
+
+        for (int i = 0; i < leaves.size(); i++)
+        {
+            a = leaves.get(i);
+            for (int dir = 0; dir < 4; dir++)
+            {
+                selector = this.getSelector(a, dir);
+                nearest = Integer.MAX_VALUE;
+                for (int j = 0; j < leaves.size(); j++)
+                {
+                    if (j != i && selector.intersects(leaves.get(j).getRectangle()))
+                    {
+                        nearest = Math.min(nearest, a.getDistanceAbsolute(leaves.get(j)));
+                    }
+                }
+
+                direction = (dir % 2 == 0) ? PageAreaRelation.DIRECTION_HORIZONTAL : PageAreaRelation.DIRECTION_VERTICAL;
+                for (int j = 0; j < leaves.size(); j++)
+                {
+                    b = leaves.get(j);
+                    if (j == i || !selector.intersects(b.getRectangle()) || a.getDistanceAbsolute(b) != nearest) continue;
+
+                    if (dir == SweepNeighborFinder.DIR_RIGHT || dir == SweepNeighborFinder.DIR_DOWN)
+                    {
+                        ret.add("R "+i+" "+j+" "+direction+" "+nearest);
+                    }
+                    ret.add("N "+i+" "+j+" "+nearest);
+                    ret.add("N "+j+" "+i+" "+nearest);
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * The selectors of AreaProcessor2 for a square page.
+     */
+    private Rectangle getSelector(PageArea a, int direction)
+    {
+        switch (direction)
+        {
+            case SweepNeighborFinder.DIR_RIGHT:
+                return new Rectangle(a.getRight()+1, a.getTop()+1, SIZE, a.getBottom()-1);
+            case SweepNeighborFinder.DIR_DOWN:
+                return new Rectangle(a.getLeft()+1, a.getBottom()+1, a.getRight()-1, SIZE);
+            case SweepNeighborFinder.DIR_LEFT:
+                return new Rectangle(0, a.getTop()+1, Math.max(a.getLeft()-1, 0), a.getBottom()-1);
+            default:
+                return new Rectangle(a.getLeft()+1, 0, a.getRight()-1, Math.max(a.getTop()-1, 0));
+        }
+    }
+}
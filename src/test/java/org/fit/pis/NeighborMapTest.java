@@ -0,0 +1,204 @@
+package org.fit.pis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NeighborMapTest
+{
+    /* The table of a new map holds 4 neighbors before it grows */
+    private static final int SMALL = 8;
+
+    private static PageArea leaf(int index)
+    {
+        PageArea a = new PageArea(Color.red, index, 0, index+10, 10);
+
+        a.setIndex(index);
+        return a;
+    }
+
+    private static PageAreaRelation relation(PageArea a)
+    {
+        return new PageAreaRelation(a, a, 0.5, PageAreaRelation.DIRECTION_HORIZONTAL);
+    }
+
+    /**
+     * Finds the slot a leaf with the index gets in an empty map.
+     */
+    private static int home(int index)
+    {
+        NeighborMap map = new NeighborMap();
+
+        map.put(leaf(index), null);
+        return map.first();
+    }
+
+    /**
+     * Finds cnt leaf indexes with the given home slot in the small table.
+     */
+    private static ArrayList<PageArea> leavesAt(int slot, int cnt, int from)
+    {
+        ArrayList<PageArea> ret = new ArrayList<>();
+
+        for (int i = from; ret.size() < cnt; i++)
+        {
+            if (home(i) == slot) ret.add(leaf(i));
+        }
+        return ret;
+    }
+
+    private static void assertSameContent(Map<PageArea, PageAreaRelation> expected, NeighborMap map, Iterable<PageArea> all)
+    {
+        int cnt = 0;
+
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected.isEmpty(), map.isEmpty());
+        for (PageArea a: all)
+        {
+            assertEquals(expected.containsKey(a), map.containsKey(a));
+            assertSame(expected.get(a), map.get(a));
+        }
+        for (int i = map.first(); i >= 0; i = map.next(i))
+        {
+            assertSame(expected.get(map.getArea(i)), map.getRelation(i));
+            cnt++;
+        }
+        assertEquals(expected.size(), cnt);
+    }
+
+    private static void put(Map<PageArea, PageAreaRelation> expected, NeighborMap map, PageArea a)
+    {
+        PageAreaRelation rel = relation(a);
+
+        expected.put(a, rel);
+        map.put(a, rel);
+    }
+
+    private static void remove(Map<PageArea, PageAreaRelation> expected, NeighborMap map, PageArea a)
+    {
+        expected.remove(a);
+        map.remove(a);
+    }
+
+    /**
+     * Three leaves probing from the same slot and one whose home is the next
+     * slot: removing any of them keeps the rest reachable.
+     */
+    @Test
+    public void removalInsideProbeCluster()
+    {
+        ArrayList<PageArea> same = leavesAt(2, 3, 0);
+        PageArea next = leavesAt(3, 1, 0).get(0);
+        ArrayList<PageArea> all = new ArrayList<>(same);
+        HashMap<PageArea, PageAreaRelation> expected;
+        NeighborMap map;
+
+        all.add(next);
+        for (int removed = 0; removed < all.size(); removed++)
+        {
+            expected = new HashMap<>();
+            map = new NeighborMap();
+            for (PageArea a: all)
+            {
+                put(expected, map, a);
+            }
+            assertSameContent(expected, map, all);
+
+            remove(expected, map, all.get(removed));
+            assertSameContent(expected, map, all);
+
+            /* And the second removal within the shifted cluster */
+            remove(expected, map, all.get((removed+1)%all.size()));
+            assertSameContent(expected, map, all);
+        }
+    }
+
+    /**
+     * The probing of the last slot continues at the start of the table, the
+     * entries there have to be shifted back over the end.
+     */
+    @Test
+    public void removalAcrossWrapAround()
+    {
+        ArrayList<PageArea> last = leavesAt(SMALL-1, 3, 0);
+        PageArea first = leavesAt(0, 1, 0).get(0);
+        ArrayList<PageArea> all = new ArrayList<>(last);
+        HashMap<PageArea, PageAreaRelation> expected;
+        NeighborMap map;
+
+        all.add(first);
+        for (int removed = 0; removed < all.size(); removed++)
+        {
+            expected = new HashMap<>();
+            map = new NeighborMap();
+            for (PageArea a: all)
+            {
+                put(expected, map, a);
+            }
+            /* The cluster occupies the last slot and the first ones */
+            assertEquals(0, map.first());
+            assertSameContent(expected, map, all);
+
+            remove(expected, map, all.get(removed));
+            assertSameContent(expected, map, all);
+
+            for (PageArea a: all)
+            {
+                remove(expected, map, a);
+                assertSameContent(expected, map, all);
+            }
+            assertTrue(map.isEmpty());
+        }
+    }
+
+    /**
+     * Random puts, replacements and removals of leaves and groups (hashed by
+     * identity) over several resizes give the same content as a HashMap.
+     */
+    @Test
+    public void resizeKeepsContent()
+    {
+        ArrayList<PageArea> all = new ArrayList<>();
+        HashMap<PageArea, PageAreaRelation> expected = new HashMap<>();
+        NeighborMap map = new NeighborMap();
+        Random random = new Random(5);
+        PageArea a;
+
+        for (int i = 0; i < 300; i++)
+        {
+            all.add(leaf(i));
+            all.add(new PageArea(Color.blue, i, 20, i+10, 30));
+        }
+        assertFalse(map.containsKey(all.get(0)));
+        assertNull(map.get(all.get(1)));
+
+        for (int step = 0; step < 5000; step++)
+        {
+            a = all.get(random.nextInt(all.size()));
+            if (random.nextInt(3) == 0) remove(expected, map, a);
+            else put(expected, map, a);
+
+            if (step%250 == 0) assertSameContent(expected, map, all);
+        }
+        assertSameContent(expected, map, all);
+
+        map.clear();
+        expected.clear();
+        assertSameContent(expected, map, all);
+        for (PageArea b: all)
+        {
+            put(expected, map, b);
+        }
+        assertSameContent(expected, map, all);
+    }
+}
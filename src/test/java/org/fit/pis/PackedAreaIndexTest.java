@@ -0,0 +1,113 @@
+package org.fit.pis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.infomatiq.jsi.Rectangle;
+import com.infomatiq.jsi.rtree.RTree;
+
+/**
+ * The packed index has to return the same areas as the jsi RTree it replaced.
+ */
+public class PackedAreaIndexTest
+{
+    @Test
+    public void sameMatchesAsRTree()
+    {
+        Random r = new Random(5);
+        ArrayList<PageArea> areas;
+        PackedAreaIndex packed;
+        RTree tree;
+        Rectangle query;
+        int l, t;
+
+        /* Around the node size and the sizes of the levels */
+        for (int n: new int[]{0, 1, 2, 15, 16, 17, 255, 256, 257, 1000, 5000})
+        {
+            areas = new ArrayList<>();
+            for (int i = 0; i < n; i++)
+            {
+                l = r.nextInt(2000)-50;
+                t = r.nextInt(9000)-50;
+                areas.add(new PageArea(Color.black, l, t, l+r.nextInt(200), t+r.nextInt(80)));
+            }
+            packed = new PackedAreaIndex(new AreaStore(areas));
+            tree = new RTree();
+            tree.init(null);
+            for (int i = 0; i < n; i++)
+            {
+                tree.add(areas.get(i).getRectangle(), i);
+            }
+            assertEquals(n, packed.size());
+
+            for (int q = 0; q < 300; q++)
+            {
+                l = r.nextInt(2200)-100;
+                t = r.nextInt(9200)-100;
+                query = new Rectangle(l, t, l+r.nextInt(500), t+r.nextInt(500));
+                assertEquals("n "+n+" query "+q, this.matches(tree, query), this.matches(packed, query));
+            }
+        }
+    }
+
+    @Test
+    public void bordersIncluded()
+    {
+        ArrayList<PageArea> areas = new ArrayList<>();
+        PackedAreaIndex packed;
+
+        areas.add(new PageArea(Color.black, 10, 10, 20, 20));
+        packed = new PackedAreaIndex(new AreaStore(areas));
+
+        assertEquals(1, this.matches(packed, new Rectangle(20, 20, 30, 30)).size());
+        assertEquals(1, this.matches(packed, new Rectangle(0, 0, 10, 10)).size());
+        assertEquals(0, this.matches(packed, new Rectangle(21, 0, 30, 30)).size());
+    }
+
+    @Test
+    public void resetReusesTheIndex()
+    {
+        ArrayList<PageArea> page = TestPages.scattered(3, 700, 3000);
+        AreaStore store = new AreaStore(page);
+        PackedAreaIndex packed = new PackedAreaIndex(store);
+        RTree tree = new RTree();
+        Rectangle query = new Rectangle(100, 100, 600, 900);
+
+        store.reset(page.subList(0, 40));
+        packed.reset(store);
+        tree.init(null);
+        for (int i = 0; i < 40; i++)
+        {
+            tree.add(page.get(i).getRectangle(), i);
+        }
+
+        assertEquals(40, packed.size());
+        assertEquals(this.matches(tree, query), this.matches(packed, query));
+    }
+
+    private ArrayList<Integer> matches(RTree tree, Rectangle r)
+    {
+        AreaMatch match = new AreaMatch();
+
+        tree.intersects(r, match);
+        Collections.sort(match.getIds());
+
+        return match.getIds();
+    }
+
+    private ArrayList<Integer> matches(PackedAreaIndex index, Rectangle r)
+    {
+        AreaMatch match = new AreaMatch();
+
+        index.intersects(r, match);
+        Collections.sort(match.getIds());
+
+        return match.getIds();
+    }
+}
@@ -0,0 +1,156 @@
+package org.fit.pis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class RegionClusteringTest
+{
+    @Test
+    public void parallelismAloneKeepsTheGroups() throws Exception
+    {
+        ArrayList<PageArea> page;
+
+        for (long seed = 1; seed <= 4; seed++)
+        {
+            page = TestPages.blocks(seed, 5);
+            assertEquals("seed "+seed, this.extract(page, 1, false), this.extract(page, 4, false));
+        }
+    }
+
+    @Test
+    public void regionsDoNotDependOnThreads() throws Exception
+    {
+        ArrayList<PageArea> page;
+
+        for (long seed = 1; seed <= 4; seed++)
+        {
+            page = TestPages.blocks(seed, 5);
+            assertEquals("seed "+seed, this.extract(page, 1, true), this.extract(page, 4, true));
+        }
+    }
+
+    /**
+     * The groups made by the region workers have to be known to the processor
+     * when the clustering continues with appended areas.
+     */
+    @Test
+    public void appendAfterRegions() throws Exception
+    {
+        ArrayList<PageArea> head, tail;
+        ArrayList<PageArea> groups;
+        HashSet<PageArea> headLeaves = new HashSet<>();
+        AreaProcessor2 p;
+        MergeTree tree;
+        int size = 5*TestPages.BLOCK_SIZE, joined = 0;
+
+        for (long seed = 1; seed <= 4; seed++)
+        {
+            /* The bottom part of each block is appended */
+            head = new ArrayList<>();
+            tail = new ArrayList<>();
+            for (PageArea a: TestPages.blocks(seed, 5))
+            {
+                if (a.getTop()%TestPages.BLOCK_SIZE < 2*TestPages.BLOCK_SIZE/3) head.add(a);
+                else tail.add(a);
+            }
+
+            p = new AreaProcessor2(head, size, size);
+            p.setThreshold(0.5);
+            p.setParallelism(4);
+            p.setRegionClustering(true);
+            p.extractGroups(p.getAreas());
+            headLeaves.clear();
+            headLeaves.addAll(p.getAreas());
+
+            groups = p.appendAreas(tail);
+            tree = p.getMergeTree();
+
+            /* Each group is a root of the merge tree */
+            assertEquals("seed "+seed, this.bounds(groups), this.bounds(tree.getGroups(1.0)));
+            assertEquals("seed "+seed, this.bounds(p.getUngrouped()), this.bounds(tree.getUngrouped(1.0)));
+            for (int i = 0; i < groups.size(); i++)
+            {
+                for (int j = i+1; j < groups.size(); j++)
+                {
+                    assertTrue("seed "+seed+" overlapping groups", !groups.get(i).overlaps(groups.get(j)));
+                }
+            }
+
+            for (PageArea leaf: p.getAreas())
+            {
+                if (headLeaves.contains(leaf) || leaf.getParent() == null) continue;
+
+                for (PageArea child: leaf.getParent().getChildren())
+                {
+                    if (headLeaves.contains(child)) joined++;
+                }
+            }
+        }
+
+        /* Some appended areas have to join the groups made before */
+        assertTrue(joined > 0);
+    }
+
+    /**
+     * The two nearest appended areas around the gap of a group made by a worker
+     * can't make a group overlapping it.
+     */
+    @Test
+    public void appendedGroupsKeepClearOfRegionGroups() throws Exception
+    {
+        ArrayList<PageArea> head = new ArrayList<>();
+        ArrayList<PageArea> tail = new ArrayList<>();
+        ArrayList<PageArea> groups;
+        AreaProcessor2 p;
+
+        head.add(new PageArea(Color.red, 100, 100, 140, 120));
+        head.add(new PageArea(Color.red, 145, 100, 185, 120));
+        head.add(new PageArea(Color.blue, 1000, 1000, 1040, 1020));
+        head.add(new PageArea(Color.blue, 1045, 1000, 1085, 1020));
+        tail.add(new PageArea(Color.green, 141, 40, 144, 60));
+        tail.add(new PageArea(Color.green, 141, 160, 144, 180));
+        tail.add(new PageArea(Color.green, 141, 400, 144, 420));
+
+        p = new AreaProcessor2(head, 2000, 2000);
+        p.setThreshold(1.0);
+        p.setRegionClustering(true);
+        assertEquals(2, p.extractGroups(p.getAreas()).size());
+
+        groups = p.appendAreas(tail);
+        assertEquals(2, groups.size());
+        assertEquals(3, p.getUngrouped().size());
+    }
+
+    private TreeSet<String> extract(List<PageArea> page, int parallelism, boolean regions) throws Exception
+    {
+        AreaProcessor2 p = new AreaProcessor2(TestPages.copy(page), 5*TestPages.BLOCK_SIZE, 5*TestPages.BLOCK_SIZE);
+        TreeSet<String> ret;
+
+        p.setParallelism(parallelism);
+        p.setRegionClustering(regions);
+        ret = this.bounds(p.extractGroups(p.getAreas()));
+        ret.addAll(this.bounds(p.getUngrouped()));
+
+        return ret;
+    }
+
+    private TreeSet<String> bounds(List<PageArea> areas)
+    {
+        TreeSet<String> ret = new TreeSet<>();
+
+        for (PageArea a: areas)
+        {
+            ret.add(a.getLeft()+","+a.getTop()+","+a.getRight()+","+a.getBottom()+" "+a.getChildren().size());
+        }
+
+        return ret;
+    }
+}
@@ -0,0 +1,94 @@
+package org.fit.pis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RelationQueueTest
+{
+    private static PageAreaRelation tie()
+    {
+        PageArea a = new PageArea(Color.red, 0, 0, 10, 10);
+        PageArea b = new PageArea(Color.red, 20, 0, 30, 10);
+
+        return new PageAreaRelation(a, b, 0.5, PageAreaRelation.DIRECTION_HORIZONTAL);
+    }
+
+    /**
+     * Relations the comparator can't tell apart leave the queue in the order
+     * they were inserted, the same as the stable sort of the original list.
+     */
+    @Test
+    public void equalWeightsPopInInsertionOrder()
+    {
+        ArrayList<PageAreaRelation> relations = new ArrayList<>();
+        ArrayList<PageAreaRelation> expected = new ArrayList<>();
+        PageAreaRelation rel;
+        RelationQueue queue;
+
+        for (int i = 0; i < 40; i++)
+        {
+            rel = tie();
+            relations.add(rel);
+            expected.add(rel);
+        }
+        queue = new RelationQueue(relations);
+
+        /* The ones added later go after all the equal ones in the queue */
+        for (int i = 0; i < 10; i++)
+        {
+            rel = tie();
+            queue.add(rel);
+            expected.add(rel);
+        }
+
+        /* Removing from the middle of the heap must not reorder the rest */
+        for (int i = 0; i < 10; i++)
+        {
+            rel = expected.remove(3*i+1);
+            assertTrue(queue.remove(rel));
+        }
+
+        for (PageAreaRelation e: expected)
+        {
+            assertSame(e, queue.poll());
+        }
+        assertNull(queue.poll());
+    }
+
+    /**
+     * Mixed weights come out sorted, the equal ones among them by insertion.
+     */
+    @Test
+    public void mixedWeightsMatchStableSort()
+    {
+        ArrayList<PageAreaRelation> relations = new ArrayList<>();
+        ArrayList<PageAreaRelation> expected;
+        Random random = new Random(7);
+        PageArea a = new PageArea(Color.red, 0, 0, 10, 10);
+        PageArea b = new PageArea(Color.red, 20, 0, 30, 10);
+        RelationQueue queue;
+
+        for (int i = 0; i < 200; i++)
+        {
+            relations.add(new PageAreaRelation(a, b, random.nextInt(5)/4.0, PageAreaRelation.DIRECTION_HORIZONTAL));
+        }
+        expected = new ArrayList<>(relations);
+        expected.sort(new RelationComparator());
+
+        queue = new RelationQueue(relations);
+        assertEquals(expected.size(), queue.size());
+        for (PageAreaRelation e: expected)
+        {
+            assertSame(e, queue.poll());
+        }
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,110 @@
+package org.fit.pis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ * The sweep neighbor search has to build the same area graph as the R-tree queries.
+ */
+public class SweepNeighborFinderTest
+{
+    @Test
+    public void scatteredPagesGiveTheSameGraph() throws Exception
+    {
+        ArrayList<PageArea> areas;
+
+        for (long seed = 1; seed <= 30; seed++)
+        {
+            areas = TestPages.scattered(seed, 50+20*(int)seed, 3000);
+            assertEquals("seed "+seed,
+                         this.graph(areas, 3000, AreaProcessor2.NEIGHBOR_SEARCH_RTREE),
+                         this.graph(areas, 3000, AreaProcessor2.NEIGHBOR_SEARCH_SWEEP));
+        }
+    }
+
+    @Test
+    public void rowPagesGiveTheSameGraph() throws Exception
+    {
+        ArrayList<PageArea> areas;
+        int height;
+
+        for (long seed = 1; seed <= 10; seed++)
+        {
+            areas = TestPages.rows(seed, 200);
+            height = TestPages.height(areas);
+            assertEquals("seed "+seed,
+                         this.graph(areas, height, AreaProcessor2.NEIGHBOR_SEARCH_RTREE),
+                         this.graph(areas, height, AreaProcessor2.NEIGHBOR_SEARCH_SWEEP));
+        }
+    }
+
+    @Test
+    public void sameGroups() throws Exception
+    {
+        ArrayList<PageArea> areas;
+        int height;
+
+        for (long seed = 1; seed <= 5; seed++)
+        {
+            areas = TestPages.rows(seed, 100);
+            height = TestPages.height(areas);
+            assertEquals("seed "+seed,
+                         this.groups(areas, height, AreaProcessor2.NEIGHBOR_SEARCH_RTREE),
+                         this.groups(areas, height, AreaProcessor2.NEIGHBOR_SEARCH_SWEEP));
+        }
+    }
+
+    /**
+     * The relations of the graph and the neighbors of the leaves by the leaf indexes.
+     */
+    private TreeSet<String> graph(List<PageArea> page, int height, int search) throws Exception
+    {
+        AreaProcessor2 p = new AreaProcessor2(TestPages.copy(page), TestPages.WIDTH, height);
+        IdentityHashMap<PageArea, Integer> index = new IdentityHashMap<>();
+        TreeSet<String> ret = new TreeSet<>();
+        List<PageArea> leaves;
+        NeighborMap neighbors;
+
+        p.setNeighborSearch(search);
+        leaves = p.getAreas();
+        for (int i = 0; i < leaves.size(); i++)
+        {
+            index.put(leaves.get(i), i);
+        }
+
+        for (PageAreaRelation rel: p.getAreaGraph(leaves))
+        {
+            ret.add("R "+index.get(rel.getA())+" "+index.get(rel.getB())+" "+rel.getDirection()+" "+rel.getSimilarity());
+        }
+        for (int i = 0; i < leaves.size(); i++)
+        {
+            neighbors = leaves.get(i).getNeighbors();
+            for (int slot = neighbors.first(); slot >= 0; slot = neighbors.next(slot))
+            {
+                ret.add("N "+i+" "+index.get(neighbors.getArea(slot))+" "+neighbors.getRelation(slot).getAbsoluteDistance());
+            }
+        }
+
+        return ret;
+    }
+
+    private TreeSet<String> groups(List<PageArea> page, int height, int search) throws Exception
+    {
+        AreaProcessor2 p = new AreaProcessor2(TestPages.copy(page), TestPages.WIDTH, height);
+        TreeSet<String> ret = new TreeSet<>();
+
+        p.setNeighborSearch(search);
+        for (PageArea g: p.extractGroups(p.getAreas()))
+        {
+            ret.add(g.getLeft()+","+g.getTop()+","+g.getRight()+","+g.getBottom()+" "+g.getChildren().size());
+        }
+
+        return ret;
+    }
+}
@@ -0,0 +1,169 @@
+package org.fit.pis;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic pages for the tests.
+ */
+class TestPages
+{
+    public static final int WIDTH = 1000;
+    public static final int BLOCK_SIZE = 300;
+
+    /**
+     * Rows of boxes of a few colors, some of them with a container background,
+     * similar to the lists and menus of real pages.
+     */
+    public static ArrayList<PageArea> rows(long seed, int rowCnt)
+    {
+        Random r = new Random(seed);
+        ArrayList<PageArea> ret = new ArrayList<>();
+        Color base, c;
+        int x, y = 0, w, h, hh, cols;
+
+        for (int row = 0; row < rowCnt; row++)
+        {
+            x = r.nextInt(20);
+            h = 8+r.nextInt(25);
+            cols = 1+r.nextInt(8);
+            base = new Color(r.nextInt(256), r.nextInt(256), r.nextInt(256));
+            for (int col = 0; col < cols; col++)
+            {
+                w = 15+r.nextInt(120);
+                if (x+w > WIDTH-10) break;
+
+                c = (r.nextInt(4) == 0) ? new Color(r.nextInt(256), r.nextInt(256), r.nextInt(256)) : base;
+                hh = (r.nextInt(3) == 0) ? h : h-r.nextInt(5);
+                ret.add(new PageArea(c, x, y, x+w, y+hh));
+                if (r.nextInt(6) == 0)
+                {
+                    ret.add(new PageArea(Color.white, Math.max(0, x-1), y, x+w+1, y+hh+1));
+                }
+                x += w+1+r.nextInt(15);
+            }
+            y += h+1+r.nextInt(12);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Boxes scattered at random, with overlaps, shared edges, empty and
+     * one pixel wide boxes and boxes reaching out of the page.
+     */
+    public static ArrayList<PageArea> scattered(long seed, int cnt, int height)
+    {
+        Random r = new Random(seed);
+        ArrayList<PageArea> ret = new ArrayList<>();
+        int x, y, w, h;
+
+        for (int i = 0; i < cnt; i++)
+        {
+            x = r.nextInt(WIDTH)-20;
+            y = r.nextInt(height)-20;
+            w = (r.nextInt(5) == 0) ? r.nextInt(3) : 1+r.nextInt(150);
+            h = (r.nextInt(5) == 0) ? r.nextInt(3) : 1+r.nextInt(60);
+            if (r.nextInt(3) == 0) x = (x/50)*50;
+            if (r.nextInt(3) == 0) y = (y/40)*40;
+            ret.add(new PageArea(new Color(r.nextInt(1 << 24)), x, y, x+w, y+h));
+        }
+
+        return ret;
+    }
+
+    /**
+     * The boxes of scattered() within the page that don't overlap the boxes
+     * before them, without the tiny ones.
+     */
+    public static ArrayList<PageArea> spread(long seed, int cnt, int height)
+    {
+        ArrayList<PageArea> ret = new ArrayList<>();
+        boolean free;
+
+        for (PageArea a: scattered(seed, cnt, height))
+        {
+            if (a.getLeft() < 0 || a.getTop() < 0 || a.getWidth() < 3 || a.getHeight() < 3) continue;
+
+            free = true;
+            for (PageArea b: ret)
+            {
+                if (a.overlaps(b))
+                {
+                    free = false;
+                    break;
+                }
+            }
+            if (free) ret.add(a);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Small pages of rows() placed along the diagonal, so that no area sees an
+     * area of another block as its neighbor. The blocks are BLOCK_SIZE apart.
+     */
+    public static ArrayList<PageArea> blocks(long seed, int blockCnt)
+    {
+        ArrayList<PageArea> ret = new ArrayList<>();
+        int shift;
+
+        for (int blk = 0; blk < blockCnt; blk++)
+        {
+            shift = blk*BLOCK_SIZE;
+            for (PageArea a: rows(10*seed+blk, 12))
+            {
+                if (a.getRight() >= BLOCK_SIZE-20 || a.getBottom() >= BLOCK_SIZE-20) continue;
+
+                ret.add(new PageArea(a.getColor(), a.getLeft()+shift, a.getTop()+shift, a.getRight()+shift, a.getBottom()+shift));
+            }
+        }
+
+        return ret;
+    }
+
+    public static ArrayList<PageArea> copy(List<PageArea> areas)
+    {
+        ArrayList<PageArea> ret = new ArrayList<>();
+
+        for (PageArea a: areas)
+        {
+            ret.add(new PageArea(a));
+        }
+
+        return ret;
+    }
+
+    /**
+     * Counts the pairs of groups that overlap each other.
+     */
+    public static int overlaps(List<PageArea> groups)
+    {
+        int ret = 0;
+
+        for (int i = 0; i < groups.size(); i++)
+        {
+            for (int j = i+1; j < groups.size(); j++)
+            {
+                if (groups.get(i).overlaps(groups.get(j))) ret++;
+            }
+        }
+
+        return ret;
+    }
+
+    public static int height(List<PageArea> areas)
+    {
+        int ret = 0;
+
+        for (PageArea a: areas)
+        {
+            ret = Math.max(ret, a.getBottom()+1);
+        }
+
+        return ret;
+    }
+}
@@ -0,0 +1,88 @@
+package org.fit.pis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import org.junit.Test;
+
+public class WorkBudgetTest
+{
+    /**
+     * Checks that the partial result is a valid segmentation: every leaf is in
+     * exactly one group or ungrouped and the groups span their children.
+     * @return the number of the grouped leaves
+     */
+    private static int assertConsistent(AreaProcessor2 p, ArrayList<PageArea> groups)
+    {
+        IdentityHashMap<PageArea, PageArea> owner = new IdentityHashMap<>();
+        PageArea bounds;
+        int grouped = 0;
+
+        for (PageArea g: groups)
+        {
+            bounds = new PageArea(g.getChildren().get(0));
+            for (PageArea child: g.getChildren())
+            {
+                assertNull(owner.put(child, g));
+                assertSame(g, child.getParent());
+                bounds.addChild(child, true);
+            }
+            assertEquals(bounds.getLeft(), g.getLeft());
+            assertEquals(bounds.getTop(), g.getTop());
+            assertEquals(bounds.getRight(), g.getRight());
+            assertEquals(bounds.getBottom(), g.getBottom());
+            grouped += g.getChildren().size();
+        }
+        for (PageArea a: p.getUngrouped())
+        {
+            assertNull(owner.put(a, a));
+        }
+        assertEquals(p.getAreas().size(), owner.size());
+
+        return grouped;
+    }
+
+    @Test
+    public void relationLimitStopsClustering() throws Exception
+    {
+        ArrayList<PageArea> page = TestPages.rows(3, 60);
+        int height = TestPages.height(page);
+        AreaProcessor2 p;
+        int all, partial;
+
+        p = new AreaProcessor2(TestPages.copy(page), TestPages.WIDTH, height);
+        all = assertConsistent(p, p.extractGroups(p.getAreas()));
+        assertFalse(p.isTruncated());
+
+        p = new AreaProcessor2(TestPages.copy(page), TestPages.WIDTH, height);
+        p.setRelationLimit(10);
+        partial = assertConsistent(p, p.extractGroups(p.getAreas()));
+        assertTrue(p.isTruncated());
+        assertTrue(partial < all);
+    }
+
+    /**
+     * The region workers share the budget of their processor.
+     */
+    @Test
+    public void relationLimitStopsRegionWorkers() throws Exception
+    {
+        ArrayList<PageArea> page = TestPages.blocks(6, 6);
+        int size = TestPages.height(page);
+        AreaProcessor2 p;
+
+        p = new AreaProcessor2(page, size, size);
+        p.setRegionClustering(true);
+        p.setParallelism(2);
+        p.setRelationLimit(15);
+        assertConsistent(p, p.extractGroups(p.getAreas()));
+        assertTrue(p.isTruncated());
+        p.close();
+    }
+}